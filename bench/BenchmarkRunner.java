@@ -0,0 +1,158 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * BenchmarkRunner is a small harness for microbenchmarks, in the style of JMH. Every benchmark
+ * runs a number of warmup iterations and then measurement iterations of a fixed length. An
+ * iteration calls the operation in batches until its time is up, and records the time per call,
+ * the bytes allocated per call by the benchmark thread and the garbage collections that happened.
+ * The results of the calls are summed into a sink that is printed at the end, so the JIT compiler
+ * cannot drop the work.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * one benchmarked operation. run is called with an increasing counter, which the operation
+	 * can use to cycle through its inputs.
+	 */
+	public interface Operation {
+		long run(int i);
+	}
+
+	private static class Benchmark {
+		final String name;
+		final Operation op;
+
+		Benchmark(String name, Operation op) {
+			this.name = name;
+			this.op = op;
+		}
+	}
+
+	private static final int BATCH = 64;
+
+	private ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+	private int warmupIterations = 3;
+	private int iterations = 5;
+	private long iterationMillis = 500;
+	private Pattern filter = null;
+	private long sink = 0;
+
+	/**
+	 * reads the options -w (warmup iterations), -i (measurement iterations), -t (milliseconds per
+	 * iteration); any other argument is a regular expression the benchmark names must contain
+	 * @param args
+	 */
+	public BenchmarkRunner(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-w") && i+1 < args.length)
+				warmupIterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-i") && i+1 < args.length)
+				iterations = Math.max(1, Integer.parseInt(args[++i]));
+			else if (args[i].equals("-t") && i+1 < args.length)
+				iterationMillis = Long.parseLong(args[++i]);
+			else
+				filter = Pattern.compile(args[i]);
+		}
+	}
+
+	public void add(String name, Operation op) {
+		if (filter == null || filter.matcher(name).find())
+			benchmarks.add(new Benchmark(name, op));
+	}
+
+	/**
+	 * runs the benchmarks one after the other and prints a line for each
+	 */
+	public void run() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean allocation = allocationSupported(threads);
+		System.out.println(String.format(Locale.US, "%-44s %12s %10s %12s %8s %10s",
+				"Benchmark", "ns/op", "error", "B/op", "gc.count", "gc.ms"));
+		for (Benchmark b : benchmarks) {
+			for (int i = 0; i < warmupIterations; i++)
+				iteration(b, threads, false);
+			double[] nanos = new double[iterations];
+			double bytes = 0;
+			long gcCount = gcCount(), gcTime = gcTime();
+			for (int i = 0; i < iterations; i++) {
+				double[] result = iteration(b, threads, allocation);
+				nanos[i] = result[0];
+				bytes += result[1];
+			}
+			gcCount = gcCount() - gcCount;
+			gcTime = gcTime() - gcTime;
+			double mean = 0;
+			for (double n : nanos)
+				mean += n / iterations;
+			double variance = 0;
+			for (double n : nanos)
+				variance += (n - mean) * (n - mean) / Math.max(1, iterations - 1);
+			System.out.println(String.format(Locale.US, "%-44s %12.1f %10.1f %12s %8d %10d", b.name, mean,
+					Math.sqrt(variance), allocation ? String.format(Locale.US, "%.1f", bytes / iterations) : "n/a",
+					gcCount, gcTime));
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+
+	/**
+	 * runs one iteration
+	 * @return time per call in nanoseconds and allocated bytes per call
+	 */
+	private double[] iteration(Benchmark b, ThreadMXBean threads, boolean allocation) {
+		long thread = Thread.currentThread().getId();
+		long allocated = allocation ? allocatedBytes(threads, thread) : 0;
+		long end = System.nanoTime() + iterationMillis * 1000000L;
+		long start = System.nanoTime();
+		long calls = 0;
+		long now;
+		do {
+			for (int i = 0; i < BATCH; i++)
+				sink += b.op.run((int) calls++);
+			now = System.nanoTime();
+		} while (now < end);
+		double bytes = allocation ? (double) (allocatedBytes(threads, thread) - allocated) / calls : 0;
+		return new double[] {(double) (now - start) / calls, bytes};
+	}
+
+	/**
+	 * The allocated bytes of a thread are only available from the HotSpot extension of
+	 * ThreadMXBean, which is looked up by reflection so the harness also runs without it.
+	 */
+	private static boolean allocationSupported(ThreadMXBean threads) {
+		return allocatedBytes(threads, Thread.currentThread().getId()) >= 0;
+	}
+
+	private static long allocatedBytes(ThreadMXBean threads, long thread) {
+		try {
+			Class<?> hotspot = Class.forName("com.sun.management.ThreadMXBean");
+			return (Long) hotspot.getMethod("getThreadAllocatedBytes", long.class).invoke(threads, thread);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean gc : beans)
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean gc : beans)
+			time += Math.max(0, gc.getCollectionTime());
+		return time;
+	}
+
+}
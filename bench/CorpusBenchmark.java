@@ -0,0 +1,363 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * CorpusBenchmark solves every level of the benchmark corpus with every chosen combination of
+ * search method, heuristic and move level, and records wall time, nodes per second, peak heap
+ * and solution length. The results are compared with a baseline file, and runs that generated
+ * more nodes, found longer solutions or stopped solving are reported as regressions. The baseline
+ * only holds the status, steps and nodes of each run, which are the same on every machine; wall
+ * time, nodes per second and peak heap go to a separate timings file, which is kept out of the
+ * repository. Runs that got slower than in the timings file are regressions too.
+ * <pre>
+ * java CorpusBenchmark [options]
+ *   -c file       corpus: one level file per line, # starts a comment (default bench/corpus.txt)
+ *   -b file       baseline to compare with (default bench/baseline.csv)
+ *   -w file       timings of this machine to compare with (default bench/timings.csv)
+ *   -u            write the results as the new baseline and timings instead of comparing
+ *   -m methods    search methods (default "buat")
+ *   -h heuristics heuristics for greedy and A* search (default "mh")
+ *   -l level      step, push or both (default both)
+ *   -x storage    explored set: heap, direct, verify or direct-verify as for BatchSolver
+ *                 (default heap)
+ *   -T threads    worker threads of uniform-cost, greedy and A* search (default 1)
+ *   -t seconds    time limit per run (default 10)
+ *   -k repeats    runs per configuration, the fastest one counts (default 3)
+ *   -r ratio      allowed slowdown before a run is a regression (default 0.25)
+ * </pre>
+ * A corpus line may follow the level file with its own -m, -h, -l, -x and -T options, which
+ * replace the ones above for that line, so that a level can also be solved with other settings.
+ * The whole line names the level in the results. A search with more than one thread generates a
+ * different number of nodes on every run, so its nodes are neither recorded nor compared. The exit status is 1 when there is a regression.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class CorpusBenchmark {
+
+	private static final String INFORMED = "ag";
+	private static final long MIN_TIME = 200; //ms; faster runs are too noisy to compare times
+	private static final String BASELINE_HEADER = "level,method,heuristic,level_type,status,steps,nodes";
+	private static final String HEADER = BASELINE_HEADER + ",time_ms,nodes_per_sec,peak_heap_mb";
+
+	/**
+	 * a corpus line: a level file and the settings it is solved with
+	 */
+	private static class Entry {
+		String name; //the whole line, which names the level in the results
+		String file;
+		String methods = "buat";
+		String heuristics = "mh";
+		boolean[] pushLevels = {false, true};
+		boolean offHeap = false;
+		boolean verify = false;
+		int threads = 1;
+
+		Entry copy(String name, String file) {
+			Entry e = new Entry();
+			e.name = name;
+			e.file = file;
+			e.methods = methods;
+			e.heuristics = heuristics;
+			e.pushLevels = pushLevels;
+			e.offHeap = offHeap;
+			e.verify = verify;
+			e.threads = threads;
+			return e;
+		}
+
+		/**
+		 * sets one of the options a corpus line may have
+		 * @return false if arg is not one of them
+		 */
+		boolean set(String arg, String value) {
+			if (arg.equals("-m")) methods = value;
+			else if (arg.equals("-h")) heuristics = value;
+			else if (arg.equals("-l")) pushLevels = value.equals("step") ? new boolean[] {false} :
+				value.equals("push") ? new boolean[] {true} : new boolean[] {false, true};
+			else if (arg.equals("-x")) {
+				offHeap = value.startsWith("direct");
+				verify = value.endsWith("verify");
+			}
+			else if (arg.equals("-T")) threads = Math.max(1, Integer.parseInt(value));
+			else return false;
+			return true;
+		}
+	}
+
+	/**
+	 * the measurements of one configuration
+	 */
+	private static class Run {
+		String key; //level,method,heuristic,level_type
+		String status;
+		int steps;
+		long nodes; //-1 if not recorded
+		long time;
+		long nodesPerSecond;
+		double peakHeap;
+
+		/**
+		 * the columns of the baseline, which do not depend on the machine
+		 */
+		String toBaselineCsv() {
+			return key + "," + status + "," + steps + "," + (nodes < 0 ? "" : String.valueOf(nodes));
+		}
+
+		String toCsv() {
+			return toBaselineCsv() + "," + time + "," + nodesPerSecond + "," + String.format(Locale.US, "%.1f", peakHeap);
+		}
+
+		/**
+		 * reads a line of a baseline or a timings file; a baseline line has no times
+		 */
+		static Run parse(String line) {
+			String[] f = line.split(",", -1);
+			Run run = new Run();
+			run.key = f[0] + "," + f[1] + "," + f[2] + "," + f[3];
+			run.status = f[4];
+			run.steps = Integer.parseInt(f[5]);
+			run.nodes = f[6].length() == 0 ? -1 : Long.parseLong(f[6]);
+			if (f.length > 7) {
+				run.time = Long.parseLong(f[7]);
+				run.nodesPerSecond = Long.parseLong(f[8]);
+				run.peakHeap = Double.parseDouble(f[9]);
+			}
+			return run;
+		}
+	}
+
+	private Entry defaults = new Entry(); //the settings of corpus lines without options
+	private long timeLimit = 10000;
+	private int repeats = 3;
+	private double threshold = 0.25;
+
+	public static void main(String[] args) throws IOException {
+		CorpusBenchmark bench = new CorpusBenchmark();
+		File corpus = new File("bench", "corpus.txt");
+		File baseline = new File("bench", "baseline.csv");
+		File timings = new File("bench", "timings.csv");
+		boolean update = false;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-u")) {
+				update = true;
+				continue;
+			}
+			if (i+1 == args.length)
+				usage("Missing value for " + arg);
+			String value = args[++i];
+			if (arg.equals("-c")) corpus = new File(value);
+			else if (arg.equals("-b")) baseline = new File(value);
+			else if (arg.equals("-w")) timings = new File(value);
+			else if (arg.equals("-t")) bench.timeLimit = (long) (Double.parseDouble(value) * 1000);
+			else if (arg.equals("-k")) bench.repeats = Math.max(1, Integer.parseInt(value));
+			else if (arg.equals("-r")) bench.threshold = Double.parseDouble(value);
+			else if (!bench.defaults.set(arg, value)) usage("Unknown option " + arg);
+		}
+		ArrayList<Entry> levels = bench.readCorpus(corpus);
+		bench.warmUp(levels.get(0));
+		ArrayList<Run> runs = bench.runAll(levels);
+		if (update) {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(baseline), "UTF-8"));
+			PrintWriter times = new PrintWriter(new OutputStreamWriter(new FileOutputStream(timings), "UTF-8"));
+			out.println(BASELINE_HEADER);
+			times.println(HEADER);
+			for (Run run : runs) {
+				out.println(run.toBaselineCsv());
+				times.println(run.toCsv());
+			}
+			out.close();
+			times.close();
+			System.out.println("Wrote " + runs.size() + " runs to " + baseline + " and " + timings);
+			return;
+		}
+		if (!baseline.isFile()) {
+			System.out.println("No baseline " + baseline + "; run with -u to create it");
+			return;
+		}
+		if (!timings.isFile())
+			System.out.println("No timings " + timings + "; times are not compared until -u writes them");
+		int regressions = bench.compare(runs, readBaseline(baseline),
+				timings.isFile() ? readBaseline(timings) : new LinkedHashMap<String, Run>());
+		System.out.println(regressions == 0 ? "No regressions" : regressions + " regression(s)");
+		if (regressions > 0)
+			System.exit(1);
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("Usage: java CorpusBenchmark [-c corpus] [-b baseline] [-w timings] [-u] [-m methods] [-h heuristics] " +
+				"[-l step|push|both] [-x storage] [-T threads] [-t seconds] [-k repeats] [-r ratio]");
+		System.exit(2);
+	}
+
+	/**
+	 * solves the first level once with every configuration, so that the measured runs do not
+	 * include the time the JIT compiler needs
+	 */
+	private void warmUp(Entry level) {
+		for (char method : level.methods.toCharArray())
+			for (boolean pushLevel : level.pushLevels)
+				solve(level, method, level.heuristics.charAt(0), pushLevel);
+	}
+
+	private ArrayList<Run> runAll(ArrayList<Entry> levels) {
+		ArrayList<Run> runs = new ArrayList<Run>();
+		System.out.println(HEADER);
+		for (Entry level : levels) {
+			for (char method : level.methods.toCharArray()) {
+				String hChoices = INFORMED.indexOf(method) >= 0 ? level.heuristics : level.heuristics.substring(0, 1);
+				for (char hChoice : hChoices.toCharArray()) {
+					for (boolean pushLevel : level.pushLevels) {
+						if (method == 't' && !pushLevel && level.pushLevels.length > 1)
+							continue; //bidirectional search always works on pushes
+						Run best = null;
+						for (int i = 0; i < repeats; i++) {
+							Run run = solve(level, method, hChoice, pushLevel);
+							if (best == null || run.time < best.time)
+								best = run;
+							if (!run.status.equals("solved"))
+								break; //a run that hit the time limit takes just as long again
+						}
+						runs.add(best);
+						System.out.println(best.toCsv());
+					}
+				}
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * solves a level once and measures it
+	 */
+	private Run solve(Entry level, char method, char hChoice, boolean pushLevel) {
+		Run run = new Run();
+		run.key = level.name + "," + method + "," + (INFORMED.indexOf(method) >= 0 ? String.valueOf(hChoice) : "") +
+				"," + (pushLevel || method == 't' ? "push" : "step");
+		System.gc();
+		ArrayList<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				pools.add(pool);
+			}
+		}
+		try {
+			SokobanSolver solver = new SokobanSolver();
+			solver.setVerbose(false);
+			solver.setDeadlockDirectory(null);
+			solver.setLimits(timeLimit, 0);
+			solver.setExploredSet(level.offHeap, level.verify);
+			solver.setThreads(level.threads);
+			solver.loadFile(level.file, hChoice);
+			long start = System.nanoTime();
+			solver.solve(method, pushLevel);
+			long wall = (System.nanoTime() - start) / 1000000;
+			SearchResult result = solver.getResult();
+			run.status = result.getStatus().name().toLowerCase();
+			run.steps = result.getSteps();
+			run.nodes = result.getNodes();
+			run.time = wall;
+			run.nodesPerSecond = run.nodes * 1000 / Math.max(1, wall);
+			if (level.threads > 1)
+				run.nodes = -1; //depends on how the threads were scheduled
+		} catch (Exception e) {
+			run.status = "error";
+		} catch (OutOfMemoryError e) {
+			run.status = "out_of_memory";
+		}
+		long peak = 0;
+		for (MemoryPoolMXBean pool : pools)
+			peak += pool.getPeakUsage().getUsed();
+		run.peakHeap = peak / (1024.0 * 1024.0);
+		return run;
+	}
+
+	/**
+	 * prints every run that is worse than its baseline, or slower than in the timings
+	 * @return the number of regressions
+	 */
+	private int compare(ArrayList<Run> runs, LinkedHashMap<String, Run> baseline, LinkedHashMap<String, Run> timings) {
+		int regressions = 0;
+		for (Run run : runs) {
+			Run base = baseline.get(run.key);
+			if (base == null)
+				continue;
+			ArrayList<String> reasons = new ArrayList<String>();
+			if (base.status.equals("solved") && !run.status.equals("solved"))
+				reasons.add("status " + base.status + " -> " + run.status);
+			else if (run.status.equals("solved") && base.status.equals("solved")) {
+				if (run.steps > base.steps)
+					reasons.add("steps " + base.steps + " -> " + run.steps);
+				if (base.nodes >= 0 && run.nodes > base.nodes * (1 + threshold))
+					reasons.add("nodes " + base.nodes + " -> " + run.nodes);
+				Run timed = timings.get(run.key);
+				if (timed != null && timed.status.equals("solved") && Math.max(run.time, timed.time) >= MIN_TIME &&
+						run.time > timed.time * (1 + threshold))
+					reasons.add("time " + timed.time + "ms -> " + run.time + "ms");
+			}
+			if (!reasons.isEmpty()) {
+				regressions++;
+				System.out.println("REGRESSION " + run.key + ": " + reasons);
+			}
+		}
+		return regressions;
+	}
+
+	/**
+	 * reads the corpus; a line without options is solved with the defaults
+	 */
+	private ArrayList<Entry> readCorpus(File file) throws IOException {
+		ArrayList<Entry> levels = new ArrayList<Entry>();
+		for (String line : readLines(file)) {
+			line = line.trim().replaceAll("\\s+", " ");
+			if (line.length() == 0 || line.startsWith("#"))
+				continue;
+			String[] words = line.split(" ");
+			Entry level = defaults.copy(line, words[0]);
+			for (int i = 1; i < words.length; i += 2)
+				if (i+1 == words.length || !level.set(words[i], words[i+1]))
+					throw new IOException("Bad option in corpus line: " + line);
+			levels.add(level);
+		}
+		return levels;
+	}
+
+	private static LinkedHashMap<String, Run> readBaseline(File file) throws IOException {
+		LinkedHashMap<String, Run> runs = new LinkedHashMap<String, Run>();
+		ArrayList<String> lines = readLines(file);
+		for (int i = 1; i < lines.size(); i++) {
+			if (lines.get(i).trim().length() == 0)
+				continue;
+			Run run = Run.parse(lines.get(i));
+			runs.put(run.key, run);
+		}
+		return runs;
+	}
+
+	private static ArrayList<String> readLines(File file) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			for (String line = in.readLine(); line != null; line = in.readLine())
+				lines.add(line);
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+}
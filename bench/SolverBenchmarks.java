@@ -0,0 +1,147 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * SolverBenchmarks measures the hot primitives of the solver with BenchmarkRunner: Problem.actions,
+ * deadlockTest and goalTest, Search.getChild, State.hashCode and equals, Heuristics.getHeuristic
+ * for every heuristic choice and HungarianAlgorithm.execute for several numbers of boxes.
+ * The input states are taken from random walks on the levels in examples/t1..t8, with a fixed
+ * seed so that every run measures the same states.
+ * <pre>
+ * java SolverBenchmarks [-w warmup iterations] [-i iterations] [-t ms per iteration] [name regex]
+ * </pre>
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class SolverBenchmarks {
+
+	private static final int STATES_PER_LEVEL = 128;
+	private static final int WALK_LENGTH = 40; //moves between two sampled states
+	private static final int[] MATRIX_SIZES = {4, 8, 16, 32};
+	private static final long SEED = 4701;
+
+	/**
+	 * a level and the states sampled from it
+	 */
+	private static class Fixture {
+		final Problem p;
+		final Node[] nodes;
+		final State[] states;
+		final State[] copies; //equal to states, but different objects
+
+		Fixture(Problem p, ArrayList<Node> sampled) {
+			this.p = p;
+			this.nodes = sampled.toArray(new Node[sampled.size()]);
+			this.states = new State[nodes.length];
+			this.copies = new State[nodes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				states[i] = nodes[i].state;
+				copies[i] = p.createState(states[i].boxes.clone(), states[i].player);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner(args);
+		Random random = new Random(SEED);
+		for (int t = 1; t <= 8; t++) {
+			String level = "t" + t;
+			SokobanSolver solver = new SokobanSolver();
+			solver.setVerbose(false);
+			solver.setDeadlockDirectory(null);
+			solver.loadFile(new File("examples", level + ".txt").getPath(), 'm');
+			final Fixture f = new Fixture(solver.getProblem(), sample(solver.getProblem(), random));
+			final Search search = new Search(new Heuristics(f.p, 'm'));
+			final int n = f.nodes.length;
+
+			runner.add(level + ".actions", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					return f.p.actions(f.states[i % n]).size();
+				}
+			});
+			runner.add(level + ".deadlockTest", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					return f.p.deadlockTest(f.states[i % n]) ? 1 : 0;
+				}
+			});
+			runner.add(level + ".deadlockTest(push)", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					Node node = f.nodes[i % n];
+					return node.push >= 0 && f.p.deadlockTest(node.state, node.push) ? 1 : 0;
+				}
+			});
+			runner.add(level + ".goalTest", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					return f.p.goalTest(f.states[i % n]) ? 1 : 0;
+				}
+			});
+			runner.add(level + ".getChild", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					Node node = f.nodes[i % n];
+					return search.getChild(f.p, node, f.p.actions(node.state).get(0), false).state.player;
+				}
+			});
+			runner.add(level + ".hashCode", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					return f.copies[i % n].hashCode();
+				}
+			});
+			runner.add(level + ".equals", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					return f.states[i % n].equals(f.copies[i % n]) ? 1 : 0;
+				}
+			});
+			for (final char hChoice : new char[] {'m', 'e', 'h', 'x'}) {
+				final Heuristics h = new Heuristics(f.p, hChoice);
+				runner.add(level + ".getHeuristic(" + hChoice + ")", new BenchmarkRunner.Operation() {
+					public long run(int i) {
+						return (long) h.getHeuristic(f.states[i % n]);
+					}
+				});
+			}
+		}
+		for (final int size : MATRIX_SIZES) {
+			final double[][][] matrices = new double[16][size][size];
+			final double[][] work = new double[size][size];
+			for (double[][] matrix : matrices)
+				for (double[] row : matrix)
+					for (int j = 0; j < size; j++)
+						row[j] = random.nextInt(50);
+			final HungarianAlgorithm hungarian = new HungarianAlgorithm(size);
+			runner.add("hungarian.execute(" + size + ")", new BenchmarkRunner.Operation() {
+				public long run(int i) {
+					//execute reduces the matrix in place, so every call gets a fresh copy
+					double[][] matrix = matrices[i % matrices.length];
+					for (int r = 0; r < size; r++)
+						System.arraycopy(matrix[r], 0, work[r], 0, size);
+					return hungarian.execute(work)[0];
+				}
+			});
+		}
+		runner.run();
+	}
+
+	/**
+	 * samples states with a random walk over the player moves of the level. The walk starts again
+	 * from the initial state when it reaches a deadlock or a state without moves.
+	 */
+	private static ArrayList<Node> sample(Problem p, Random random) {
+		Search search = new Search(null);
+		ArrayList<Node> sampled = new ArrayList<Node>();
+		Node node = new Node(p.initialState, null, 0, "");
+		for (int step = 1; sampled.size() < STATES_PER_LEVEL; step++) {
+			ArrayList<String> actions = p.actions(node.state);
+			if (actions.isEmpty() || (node.push >= 0 && p.deadlockTest(node.state, node.push))) {
+				node = new Node(p.initialState, null, 0, "");
+				continue;
+			}
+			node = search.getChild(p, node, actions.get(random.nextInt(actions.size())), false);
+			node.parent = null; //only the state and the last push are needed
+			if (step % WALK_LENGTH == 0 || node.push >= 0)
+				sampled.add(node);
+		}
+		return sampled;
+	}
+
+}
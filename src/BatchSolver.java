@@ -0,0 +1,356 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BatchSolver is the headless entry point of the solver. It solves a list of level files, or all
+ * level files in a directory, with every combination of the chosen search methods, heuristics and
+ * move levels, on a pool of threads. One record is written per run, as CSV or as JSON lines, as
+ * soon as the run finishes. A .txt file holds one level after its number of rows; a .xsb or .sok
+ * file is a collection, whose levels are read one at a time by a LevelReader while the earlier
+ * ones are solved, and are recorded as file#number. At most two runs per thread wait for a
+ * thread, and the reader waits until there is room, so a large collection is never held in
+ * memory at once.
+ * <pre>
+ * java BatchSolver [options] level-file-or-directory...
+ *   -m methods     search methods to run, e.g. "bua" (default "a")
+ *   -h heuristics  heuristics for greedy and A* search, e.g. "mh" (default "m"); IDA* search
+ *                  always uses the admissible lower bound of the heuristics
+ *   -l level       step, push or both (default step)
+ *   -t seconds     time limit per run (default none)
+ *   -n nodes       generated node limit per run (default none)
+ *   -j threads     runs solved at the same time (default number of processors)
+ *   -T threads     worker threads of each uniform-cost, greedy and A* run; with more than one
+ *                  they run as hash-distributed parallel searches (default 1)
+ *   -f format      csv or json (default csv)
+ *   -o file        output file (default standard output)
+ *   -d directory   directory of learned deadlock patterns (default none)
+ *   -p seconds     print the metrics of every running search to standard error this often
+ *                  (default never)
+ *   -s directory   let breadth-first, uniform-cost, greedy and A* search spill their fringe to
+ *                  memory-mapped files in this directory (default none); external-memory
+ *                  breadth-first search (method e) keeps its layer files there
+ *   -k nodes       fringe nodes a spilling search keeps on the heap, and children external
+ *                  breadth-first search sorts in memory at a time (default 1048576)
+ *   -c directory   let breadth-first, uniform-cost, greedy and A* search save checkpoints in
+ *                  this directory and resume from them when the same run is started again
+ *                  (default none)
+ *   -w seconds     time between checkpoints (default 300); a run stopped by its time or node
+ *                  limit also saves one
+ *   -x storage     explored set of breadth-first, depth-first, uniform-cost, greedy and A*
+ *                  search: heap, direct (off the heap), verify (also compare full states when
+ *                  fingerprints match) or direct-verify (default heap)
+ * </pre>
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class BatchSolver {
+
+	private static final String INFORMED = "ag"; //methods that use a heuristic
+	private static final String[] COLUMNS = {"level", "method", "heuristic", "level_type", "status",
+		"steps", "nodes", "redundant", "fringe", "explored", "time_ms", "solution"};
+
+	private String methods = "a";
+	private String heuristics = "m";
+	private boolean[] pushLevels = {false};
+	private long timeLimit = 0;
+	private long nodeLimit = 0;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int searchThreads = 1; //worker threads of one uniform-cost, greedy or A* search
+	private boolean json = false;
+	private File deadlockDir = null;
+	private long progressPeriod = 0; //ms between metrics printed to standard error, 0 for none
+	private File spillDir = null;
+	private int hotNodes = Search.DEFAULT_HOT_NODES;
+	private File checkpointDir = null;
+	private long checkpointPeriod = Search.DEFAULT_CHECKPOINT_PERIOD;
+	private boolean offHeap = false;
+	private boolean verify = false;
+	private PrintWriter out;
+	private Semaphore pending; //room for runs that have been submitted but not finished
+
+	public static void main(String[] args) {
+		BatchSolver batch = new BatchSolver();
+		ArrayList<File> levels = new ArrayList<File>();
+		String output = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (!arg.startsWith("-") || arg.length() != 2) {
+					levels.addAll(levelFiles(new File(arg)));
+					continue;
+				}
+				if (i+1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String value = args[++i];
+				switch (arg.charAt(1)) {
+				case 'm': batch.methods = value; break;
+				case 'h': batch.heuristics = value; break;
+				case 'l': batch.pushLevels = pushLevels(value); break;
+				case 't': batch.timeLimit = (long) (Double.parseDouble(value) * 1000); break;
+				case 'n': batch.nodeLimit = Long.parseLong(value); break;
+				case 'j': batch.threads = Math.max(1, Integer.parseInt(value)); break;
+				case 'T': batch.searchThreads = Math.max(1, Integer.parseInt(value)); break;
+				case 'f': batch.json = format(value); break;
+				case 'o': output = value; break;
+				case 'd': batch.deadlockDir = new File(value); break;
+				case 'p': batch.progressPeriod = (long) (Double.parseDouble(value) * 1000); break;
+				case 's': batch.spillDir = new File(value); break;
+				case 'k': batch.hotNodes = Integer.parseInt(value); break;
+				case 'c': batch.checkpointDir = new File(value); break;
+				case 'w': batch.checkpointPeriod = (long) (Double.parseDouble(value) * 1000); break;
+				case 'x': batch.exploredSet(value); break;
+				default: throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if (levels.isEmpty())
+				throw new IllegalArgumentException("No level files given");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java BatchSolver [-m methods] [-h heuristics] [-l step|push|both] " +
+					"[-t seconds] [-n nodes] [-j threads] [-T threads] [-f csv|json] [-o file] [-d directory] [-p seconds] " +
+					"[-s directory] [-k nodes] [-c directory] [-w seconds] [-x heap|direct|verify|direct-verify] level...");
+			System.exit(2);
+		}
+		try {
+			batch.out = output == null ? new PrintWriter(new OutputStreamWriter(System.out, "UTF-8")) :
+				new PrintWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+		} catch (IOException e) {
+			System.err.println("Could not open " + output + ": " + e.getMessage());
+			System.exit(2);
+		}
+		batch.run(levels);
+		batch.out.close();
+	}
+
+	/**
+	 * solves every level with every configuration on the thread pool and waits for all runs
+	 * @param levels
+	 */
+	public void run(ArrayList<File> levels) {
+		if (!json)
+			out.println(csvLine(COLUMNS));
+		out.flush();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		pending = new Semaphore(2 * threads);
+		for (File file : levels) {
+			if (!collection(file)) {
+				submit(pool, file.getPath(), file, null);
+				continue;
+			}
+			try {
+				LevelReader reader = new LevelReader(file);
+				try {
+					for (Level level : reader)
+						submit(pool, file.getPath() + "#" + level.getNumber(), file, level);
+				} finally {
+					reader.close();
+				}
+			} catch (Exception e) {
+				write(new String[] {file.getPath(), "", "", "", "error", "", "", "", "", "", "",
+						String.valueOf(e.getMessage())});
+			}
+		}
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES));
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * queues the runs of one level with every configuration, waiting while the pool already has
+	 * as many runs as it may hold
+	 * @param pool
+	 * @param name name of the level in the records
+	 * @param file
+	 * @param level the level of a collection, or null to read the file
+	 */
+	private void submit(ExecutorService pool, final String name, final File file, final Level level) {
+		for (final char method : methods.toCharArray()) {
+			String hChoices = INFORMED.indexOf(method) >= 0 ? heuristics : heuristics.substring(0, 1);
+			for (final char hChoice : hChoices.toCharArray()) {
+				for (final boolean pushLevel : pushLevels) {
+					pending.acquireUninterruptibly();
+					pool.execute(new Runnable() {
+						public void run() {
+							try {
+								solve(name, file, level, method, hChoice, pushLevel);
+							} finally {
+								pending.release();
+							}
+						}
+					});
+				}
+			}
+		}
+	}
+
+	/**
+	 * solves one level with one configuration and writes its record
+	 */
+	private void solve(String name, File file, Level level, char method, char hChoice, boolean pushLevel) {
+		String heuristic = INFORMED.indexOf(method) >= 0 ? String.valueOf(hChoice) : "";
+		String[] record;
+		try {
+			SokobanSolver solver = new SokobanSolver();
+			solver.setVerbose(false);
+			solver.setDeadlockDirectory(deadlockDir);
+			solver.setSpill(spillDir, hotNodes);
+			solver.setCheckpoint(checkpointDir, checkpointPeriod);
+			solver.setLimits(timeLimit, nodeLimit);
+			solver.setExploredSet(offHeap, verify);
+			solver.setThreads(searchThreads);
+			if (progressPeriod > 0) {
+				final String run = name + " " + method + heuristic + (pushLevel ? " push" : " step");
+				solver.setMetrics(progressPeriod, true, new SearchMetrics.Listener() {
+					public void snapshot(SearchMetrics.Snapshot s) {
+						System.err.println(run + ": " + s);
+					}
+				});
+			}
+			int players = level == null ? solver.loadFile(file.getPath(), hChoice) : solver.load(level, hChoice);
+			if (players != 1)
+				throw new IllegalArgumentException("level must have exactly one player");
+			solver.solve(method, pushLevel);
+			SearchResult result = solver.getResult();
+			if (result == null)
+				throw new IllegalArgumentException("invalid search method " + method);
+			record = new String[] {name, String.valueOf(method), heuristic,
+					pushLevel ? "push" : "step", result.getStatus().name().toLowerCase(),
+					String.valueOf(result.getSteps()), String.valueOf(result.getNodes()),
+					String.valueOf(result.getRedundant()), String.valueOf(result.getFringe()),
+					String.valueOf(result.getExplored()), String.valueOf(result.getTime()),
+					result.getSolution()};
+		} catch (Exception e) {
+			record = new String[] {name, String.valueOf(method), heuristic,
+					pushLevel ? "push" : "step", "error", "", "", "", "", "", "",
+					String.valueOf(e.getMessage())};
+		} catch (OutOfMemoryError e) {
+			record = new String[] {name, String.valueOf(method), heuristic,
+					pushLevel ? "push" : "step", "out_of_memory", "", "", "", "", "", "", ""};
+		}
+		write(record);
+	}
+
+	private void write(String[] record) {
+		String line = json ? jsonLine(record) : csvLine(record);
+		synchronized (out) {
+			out.println(line);
+			out.flush();
+		}
+	}
+
+	/**
+	 * returns true for collection files, which may hold many levels
+	 */
+	private static boolean collection(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".xsb") || name.endsWith(".sok");
+	}
+
+	/**
+	 * returns the file itself, or the .txt, .xsb and .sok files of a directory in name order
+	 */
+	private static ArrayList<File> levelFiles(File file) {
+		ArrayList<File> files = new ArrayList<File>();
+		if (!file.isDirectory()) {
+			if (!file.isFile())
+				throw new IllegalArgumentException("No such level file: " + file);
+			files.add(file);
+			return files;
+		}
+		File[] list = file.listFiles();
+		Arrays.sort(list);
+		for (File f : list)
+			if (f.isFile() && (f.getName().endsWith(".txt") || collection(f)))
+				files.add(f);
+		return files;
+	}
+
+	private static boolean[] pushLevels(String value) {
+		if (value.equals("step"))
+			return new boolean[] {false};
+		if (value.equals("push"))
+			return new boolean[] {true};
+		if (value.equals("both"))
+			return new boolean[] {false, true};
+		throw new IllegalArgumentException("Level must be step, push or both");
+	}
+
+	/**
+	 * sets the storage of the explored set from its option value
+	 */
+	private void exploredSet(String value) {
+		if (!value.equals("heap") && !value.equals("direct") && !value.equals("verify") && !value.equals("direct-verify"))
+			throw new IllegalArgumentException("Explored set must be heap, direct, verify or direct-verify");
+		offHeap = value.startsWith("direct");
+		verify = value.endsWith("verify");
+	}
+
+	private static boolean format(String value) {
+		if (value.equals("json"))
+			return true;
+		if (value.equals("csv"))
+			return false;
+		throw new IllegalArgumentException("Format must be csv or json");
+	}
+
+	private static String csvLine(String[] fields) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			String field = fields[i];
+			if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0)
+				field = '"' + field.replace("\"", "\"\"") + '"';
+			sb.append(field);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * writes a record as one JSON object; the count columns are written as numbers
+	 */
+	private static String jsonLine(String[] fields) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append('"').append(COLUMNS[i]).append("\":");
+			boolean number = i >= 5 && i <= 10;
+			if (number && fields[i].length() > 0)
+				sb.append(fields[i]);
+			else if (number)
+				sb.append("null");
+			else
+				appendJsonString(sb, fields[i]);
+		}
+		return sb.append('}').toString();
+	}
+
+	private static void appendJsonString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+
+}
@@ -0,0 +1,219 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Checkpoint saves a running breadth-first or priority search to a file, so that a later run
+ * on the same level with the same search configuration goes on from there instead of starting
+ * over. The file is named after the level key, the initial state and the configuration, and
+ * holds, in a compact binary form:
+ * <ul>
+ * <li>a header with the level key, the initial state and the configuration,</li>
+ * <li>the counters of the search and the time it has run,</li>
+ * <li>the tree of expanded nodes that lead to fringe nodes, parents first, one (parent, move)
+ * pair per node,</li>
+ * <li>the fringe nodes in the order in which the fringe returns them: parent, move, cost,
+ * heuristic, priority, player and box words, and</li>
+ * <li>the fingerprints of the explored set.</li>
+ * </ul>
+ * A checkpoint is written to a temporary file that then replaces the old one, so a run that
+ * is killed while saving keeps the previous checkpoint. The heuristic assignments of the nodes
+ * are not saved; they are computed again from scratch.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x534B4350; //"SKCP"
+	private static final int VERSION = 2; //2: long node counters and explored size
+
+	private final File file;
+	private final Problem p;
+	private final String config;
+	private final boolean pushLevel;
+	private final long period;
+	private long next; //time of the next save
+
+	//the search as read from the file
+	ArrayList<Node> fringe;
+	long totalNode;
+	long redundant;
+	long elapsed; //ms the search had run
+
+	/**
+	 * @param dir directory of the checkpoint files
+	 * @param p
+	 * @param config search method, heuristic and level of the search, as a file name part
+	 * @param pushLevel
+	 * @param period ms between saves
+	 */
+	public Checkpoint(File dir, Problem p, String config, boolean pushLevel, long period) {
+		this.p = p;
+		this.config = config;
+		this.pushLevel = pushLevel;
+		this.period = period;
+		this.file = new File(dir, Long.toHexString(p.levelKey) + "-" +
+				Long.toHexString(p.initialState.fingerprint()) + "-" + config + ".ckpt");
+		this.next = System.currentTimeMillis() + period;
+	}
+
+	/**
+	 * returns true once the period since the last save is over
+	 * @return
+	 */
+	public boolean due() {
+		return System.currentTimeMillis() >= next;
+	}
+
+	/**
+	 * saves the search
+	 * @param fringe fringe nodes in the order in which they are returned
+	 * @param explored
+	 * @param totalNode
+	 * @param redundant
+	 * @param elapsed ms the search has run
+	 * @throws IOException
+	 */
+	public void write(List<Node> fringe, FingerprintSet explored, long totalNode, long redundant, long elapsed)
+			throws IOException {
+		next = System.currentTimeMillis() + period; //a failed save is not retried at once
+		//the expanded ancestors of the fringe nodes, every parent before its children
+		IdentityHashMap<Node, Integer> ids = new IdentityHashMap<Node, Integer>();
+		ArrayList<Node> tree = new ArrayList<Node>();
+		for (Node n : fringe) {
+			ArrayList<Node> chain = new ArrayList<Node>();
+			for (Node a = n.parent; a != null && !ids.containsKey(a); a = a.parent)
+				chain.add(a);
+			for (int i = chain.size() - 1; i >= 0; i--) {
+				ids.put(chain.get(i), tree.size());
+				tree.add(chain.get(i));
+			}
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		File temp = new File(dir, file.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			writeHeader(out);
+			out.writeLong(totalNode);
+			out.writeLong(redundant);
+			out.writeLong(elapsed);
+			out.writeInt(tree.size());
+			for (Node n : tree) {
+				out.writeInt(parent(ids, n));
+				out.writeInt(SpillStore.code(n, pushLevel));
+			}
+			out.writeInt(fringe.size());
+			for (Node n : fringe) {
+				out.writeInt(parent(ids, n));
+				out.writeInt(SpillStore.code(n, pushLevel));
+				out.writeInt(n.cost);
+				out.writeInt(n.h);
+				out.writeInt(n.f);
+				out.writeInt(n.state.player);
+				for (long word : n.state.boxes)
+					out.writeLong(word);
+			}
+			explored.write(out);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+			throw new IOException("Could not write " + file);
+	}
+
+	/**
+	 * reads the saved search into fringe and the counters, and its explored fingerprints into
+	 * explored
+	 * @param explored an empty set; it has to be replaced when the checkpoint cannot be read
+	 * @return false if there is no checkpoint for this level and configuration or it cannot be read
+	 */
+	public boolean read(FingerprintSet explored) {
+		if (!file.isFile())
+			return false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (!readHeader(in))
+					return false;
+				totalNode = in.readLong();
+				redundant = in.readLong();
+				elapsed = in.readLong();
+				ArrayList<Node> tree = new ArrayList<Node>();
+				for (int count = in.readInt(); count > 0; count--) {
+					int parent = in.readInt();
+					Node n = new Node(null, parent < 0 ? null : tree.get(parent), 0, "");
+					SpillStore.setMove(n, in.readInt(), pushLevel);
+					tree.add(n);
+				}
+				int words = p.initialState.boxes.length;
+				fringe = new ArrayList<Node>();
+				for (int count = in.readInt(); count > 0; count--) {
+					int parent = in.readInt();
+					int code = in.readInt();
+					int cost = in.readInt();
+					int h = in.readInt();
+					int f = in.readInt();
+					int player = in.readInt();
+					long[] boxes = new long[words];
+					for (int i = 0; i < words; i++)
+						boxes[i] = in.readLong();
+					Node n = new Node(p.createState(boxes, player), parent < 0 ? null : tree.get(parent), cost, "");
+					SpillStore.setMove(n, code, pushLevel);
+					n.h = h;
+					n.f = f;
+					fringe.add(n);
+				}
+				explored.read(in);
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			//an unreadable checkpoint only means the search starts over
+			return false;
+		} catch (IndexOutOfBoundsException e) {
+			return false; //a parent that is not in the file
+		}
+	}
+
+	/**
+	 * deletes the checkpoint, once the search it belongs to has ended
+	 */
+	public void delete() {
+		file.delete();
+	}
+
+	private void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(p.levelKey);
+		out.writeInt(p.initialState.player);
+		for (long word : p.initialState.boxes)
+			out.writeLong(word);
+		out.writeUTF(config);
+	}
+
+	private boolean readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != p.levelKey ||
+				in.readInt() != p.initialState.player)
+			return false;
+		for (long word : p.initialState.boxes)
+			if (in.readLong() != word)
+				return false;
+		return in.readUTF().equals(config);
+	}
+
+	private static int parent(IdentityHashMap<Node, Integer> ids, Node n) {
+		return n.parent == null ? -1 : ids.get(n.parent);
+	}
+
+}
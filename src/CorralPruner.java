@@ -0,0 +1,182 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * CorralPruner prunes the pushes of a push-level search using corrals. A corral is a region of
+ * free cells the player cannot reach, closed off by walls and by the boxes next to it (the corral
+ * boxes). For every corral that is not already solved:
+ * <ul>
+ * <li>if every push of a corral box goes into the corral (I-corral), a small breadth-first
+ * sub-search over the corral boxes alone tries to either put them all on goals or let the player
+ * into the corral. If it runs out of states the corral can never be opened and the state is a
+ * deadlock. The sub-search stops after nodeLimit states, in which case nothing is proven.</li>
+ * <li>if in addition the player can make all of those pushes right now (PI-corral), some push
+ * into the corral has to happen before anything else matters, so only those pushes are expanded.</li>
+ * </ul>
+ * Boxes outside the corral are left out of the sub-search. That only gives the player and the
+ * corral boxes more room, so a corral that is a deadlock without them is also one with them.
+ * Proven deadlocks are added to the deadlock database of the problem.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class CorralPruner {
+
+	public static final int DEFAULT_NODE_LIMIT = 500;
+	private static final int MAX_PROOFS = 1 << 16;
+
+	private Problem p;
+	private int nodeLimit;
+	private HashMap<State, Boolean> proofs = new HashMap<State, Boolean>(); //sub-search results
+
+	/**
+	 * @param p
+	 * @param nodeLimit maximum number of states visited by one sub-search
+	 */
+	public CorralPruner(Problem p, int nodeLimit) {
+		this.p = p;
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * returns the pushes to expand for a state: all of them, only the pushes into the PI-corral
+	 * with the fewest pushes, or null if a corral proves the state is a deadlock
+	 * @param state
+	 * @param reach cells the player can walk to
+	 * @param pushes legal pushes of the state
+	 * @return
+	 */
+	public int[] prune(State state, long[] reach, int[] pushes) {
+		int[] region = new int[p.numCells];
+		Arrays.fill(region, -1);
+		int[] queue = new int[p.numCells];
+		int numRegions = 0;
+		int[] best = null;
+		for (int start = 0; start < p.numCells; start++) {
+			if (region[start] >= 0 || state.hasBox(start) || Problem.hasBit(reach, start))
+				continue;
+			//flood fill the corral and collect the boxes next to it
+			int id = numRegions++;
+			long[] cells = new long[reach.length];
+			long[] boxes = new long[reach.length];
+			boolean solved = true;
+			int tail = 0;
+			region[start] = id;
+			queue[tail++] = start;
+			for (int head = 0; head < tail; head++) {
+				int cell = queue[head];
+				cells[cell >>> 6] |= 1L << cell;
+				if (p.isGoal(cell))
+					solved = false; //empty goal inside the corral
+				for (int d = 0; d < 4; d++) {
+					int next = p.neighbor[cell*4 + d];
+					if (next < 0)
+						continue;
+					if (state.hasBox(next)) {
+						boxes[next >>> 6] |= 1L << next;
+						if (!p.isGoal(next))
+							solved = false;
+					}
+					else if (region[next] < 0) {
+						region[next] = id;
+						queue[tail++] = next;
+					}
+				}
+			}
+			if (solved)
+				continue;
+			int[] corralPushes = corralPushes(state, region, id, boxes);
+			if (corralPushes == null)
+				continue; //not an I-corral
+			if (deadlocked(state, boxes, cells))
+				return null;
+			if (canPushAll(state, reach, corralPushes) && (best == null || corralPushes.length < best.length))
+				best = corralPushes;
+		}
+		return best == null ? pushes : best;
+	}
+
+	/**
+	 * checks whether every push of a corral box goes into the corral. Pushes that are blocked by
+	 * a box right now could be made later, so they only count if they go into the corral too.
+	 * @return the pushes into the corral, or null if the corral is not an I-corral
+	 */
+	private int[] corralPushes(State state, int[] region, int id, long[] boxes) {
+		int[] result = new int[p.numCells*4];
+		int size = 0;
+		for (int i = 0; i < boxes.length; i++) {
+			for (long word = boxes[i]; word != 0; word &= word - 1) {
+				int box = (i << 6) + Long.numberOfTrailingZeros(word);
+				for (int d = 0; d < 4; d++) {
+					int behind = p.neighbor[box*4 + ((d+2) & 3)];
+					int newBox = p.neighbor[box*4 + d];
+					if (behind < 0 || newBox < 0 || region[behind] == id)
+						continue;
+					if (state.hasBox(newBox) || region[newBox] != id)
+						return null;
+					result[size++] = box*4 + d;
+				}
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * checks whether the player can make every one of the pushes right now (P-corral)
+	 */
+	private boolean canPushAll(State state, long[] reach, int[] pushes) {
+		for (int push : pushes) {
+			int behind = p.neighbor[(push & ~3) + (((push & 3) + 2) & 3)];
+			if (state.hasBox(behind) || !Problem.hasBit(reach, behind))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * bounded sub-search over the corral boxes alone. Succeeds when all of them are on goals or
+	 * the player can walk into the corral.
+	 * @return true if the sub-search proved that neither can happen
+	 */
+	private boolean deadlocked(State state, long[] boxes, long[] cells) {
+		State root = p.normalize(p.createState(boxes, state.player));
+		Boolean known = proofs.get(root);
+		if (known != null)
+			return known;
+		boolean result = !p.goalTest(root);
+		HashSet<State> visited = new HashSet<State>();
+		ArrayDeque<State> fringe = new ArrayDeque<State>();
+		visited.add(root);
+		fringe.add(root);
+		search:
+		while (result && !fringe.isEmpty()) {
+			State s = fringe.poll();
+			for (int push : p.pushes(s)) {
+				State child = p.push(s, push);
+				if (p.deadlockTest(child, push) || !visited.add(child))
+					continue;
+				if (p.goalTest(child) || intersects(p.reachable(child.boxes, child.player), cells) ||
+						visited.size() > nodeLimit) {
+					result = false;
+					break search;
+				}
+				fringe.add(child);
+			}
+		}
+		if (result)
+			p.deadlocks.add(boxes, p.reachable(boxes, root.player)); //remember it for later runs
+		if (proofs.size() >= MAX_PROOFS)
+			proofs.clear();
+		proofs.put(root, result);
+		return result;
+	}
+
+	private static boolean intersects(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++)
+			if ((a[i] & b[i]) != 0)
+				return true;
+		return false;
+	}
+
+}
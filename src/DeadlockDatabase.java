@@ -0,0 +1,226 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * DeadlockDatabase stores box arrangements that were proven unsolvable. A pattern is a set of
+ * boxes together with the region the player can walk to when only those boxes are on the board:
+ * every state that has at least those boxes and a player inside that region is a deadlock.
+ * Patterns are indexed by each of their box cells, so a push only has to look at the patterns
+ * that contain the box it moved.
+ * <p>
+ * The database can be saved to and loaded from a file named after the level key, so later runs
+ * on the same level start with the patterns learned before.
+ * <p>
+ * Several search threads may share one database. Adding is synchronized, and the per-cell
+ * pattern lists are copied on write, so matches(State, int) never needs a lock.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class DeadlockDatabase {
+
+	private static final int MAGIC = 0x534B444C; //"SKDL"
+	private static final int VERSION = 1;
+	private static final int MAX_PATTERNS = 1 << 17;
+	private static final Object FILE_LOCK = new Object();
+
+	/**
+	 * a box arrangement and the player region it is a deadlock for
+	 */
+	private static class Pattern {
+		final long[] boxes;
+		final long[] region;
+
+		Pattern(long[] boxes, long[] region) {
+			this.boxes = boxes;
+			this.region = region;
+		}
+
+		boolean matches(State s) {
+			if (!Problem.hasBit(region, s.player))
+				return false;
+			for (int i = 0; i < boxes.length; i++)
+				if ((boxes[i] & ~s.boxes[i]) != 0)
+					return false;
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(boxes) + Arrays.hashCode(region);
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Pattern)) return false;
+			Pattern pattern = (Pattern) object;
+			return Arrays.equals(boxes, pattern.boxes) && Arrays.equals(region, pattern.region);
+		}
+	}
+
+	private final long levelKey;
+	private final int numCells;
+	private final int words;
+	private final AtomicReferenceArray<Pattern[]> byCell;
+	private HashSet<Pattern> patterns = new HashSet<Pattern>();
+	private int learned = 0; //patterns added since the database was loaded
+
+	public DeadlockDatabase(long levelKey, int numCells) {
+		this.levelKey = levelKey;
+		this.numCells = numCells;
+		this.words = (numCells + 63) >>> 6;
+		this.byCell = new AtomicReferenceArray<Pattern[]>(numCells);
+		for (int i = 0; i < numCells; i++)
+			byCell.set(i, new Pattern[0]);
+	}
+
+	/**
+	 * adds a pattern
+	 * @param boxes boxes of the arrangement
+	 * @param region cells the player can walk to with only those boxes on the board
+	 */
+	public synchronized void add(long[] boxes, long[] region) {
+		if (patterns.size() >= MAX_PATTERNS)
+			return;
+		Pattern pattern = new Pattern(boxes.clone(), region.clone());
+		if (!patterns.add(pattern))
+			return;
+		learned++;
+		for (int i = 0; i < boxes.length; i++)
+			for (long word = boxes[i]; word != 0; word &= word - 1) {
+				int cell = (i << 6) + Long.numberOfTrailingZeros(word);
+				Pattern[] list = byCell.get(cell);
+				list = Arrays.copyOf(list, list.length + 1);
+				list[list.length - 1] = pattern;
+				byCell.set(cell, list);
+			}
+	}
+
+	/**
+	 * checks the patterns that contain the given box cell
+	 * @param s
+	 * @param box
+	 * @return true if one of them matches the state
+	 */
+	public boolean matches(State s, int box) {
+		for (Pattern pattern : byCell.get(box))
+			if (pattern.matches(s))
+				return true;
+		return false;
+	}
+
+	/**
+	 * checks every pattern against the state
+	 * @param s
+	 * @return
+	 */
+	public synchronized boolean matches(State s) {
+		for (Pattern pattern : patterns)
+			if (pattern.matches(s))
+				return true;
+		return false;
+	}
+
+	public synchronized int size() {
+		return patterns.size();
+	}
+
+	/**
+	 * returns the number of patterns added since the database was created or loaded
+	 * @return
+	 */
+	public synchronized int learned() {
+		return learned;
+	}
+
+	/**
+	 * returns the file that holds the patterns of this level inside the given directory
+	 * @param dir
+	 * @return
+	 */
+	public File file(File dir) {
+		return new File(dir, Long.toHexString(levelKey) + ".db");
+	}
+
+	/**
+	 * loads the patterns saved for this level, if there are any. A file that was written for a
+	 * different level or cannot be read is ignored.
+	 * @param dir
+	 */
+	public synchronized void load(File dir) {
+		synchronized (FILE_LOCK) {
+			readFile(file(dir));
+		}
+		learned = 0;
+	}
+
+	/**
+	 * saves the patterns to the directory. Patterns another run saved in the meantime are
+	 * read back first so that they are kept.
+	 * @param dir
+	 * @throws IOException
+	 */
+	public synchronized void save(File dir) throws IOException {
+		synchronized (FILE_LOCK) {
+			File file = file(dir);
+			readFile(file);
+			dir.mkdirs();
+			File temp = new File(dir, file.getName() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(levelKey);
+				out.writeInt(numCells);
+				out.writeInt(patterns.size());
+				for (Pattern pattern : patterns) {
+					for (long word : pattern.boxes)
+						out.writeLong(word);
+					for (long word : pattern.region)
+						out.writeLong(word);
+				}
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+				throw new IOException("Could not write " + file);
+		}
+		learned = 0;
+	}
+
+	private void readFile(File file) {
+		if (!file.isFile())
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != levelKey ||
+						in.readInt() != numCells)
+					return;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					long[] boxes = new long[words];
+					long[] region = new long[words];
+					for (int j = 0; j < words; j++)
+						boxes[j] = in.readLong();
+					for (int j = 0; j < words; j++)
+						region[j] = in.readLong();
+					add(boxes, region);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			//an unreadable file only means the patterns have to be learned again
+		}
+	}
+
+}
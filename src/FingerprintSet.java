@@ -0,0 +1,213 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * FingerprintSet is the explored set used by the search methods. Instead of State objects it
+ * stores 128-bit state fingerprints (the two Zobrist keys) in an open-addressing table of longs
+ * (linear probing), either in long[] segments on the heap or in direct ByteBuffers off the heap.
+ * The table is split into segments of at most SEGMENT_SLOTS slots, chosen by the high bits of the
+ * slot index, so it is not limited by the size of one array or buffer. When verify is set the
+ * states are also kept in parallel arrays, and two states with the same fingerprint are compared
+ * in full.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class FingerprintSet {
+
+	private static final int DEFAULT_CAPACITY = 1 << 12;
+	private static final long EMPTY = 0;
+	private static final int SEGMENT_BITS = 24; //16 bytes per slot, so 256 MB per segment
+	private static final int SEGMENT_SLOTS = 1 << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SLOTS - 1;
+
+	private long[][] tables; //on-heap segments, or null
+	private LongBuffer[] buffers; //off-heap segments, or null
+	private State[][] keys; //states for full-key verification, or null
+	private final boolean offHeap;
+	private long capacity;
+	private long mask;
+	private long size;
+
+	public FingerprintSet() {
+		this(DEFAULT_CAPACITY, false, false);
+	}
+
+	/**
+	 * @param capacity initial number of slots, rounded up to a power of two
+	 * @param offHeap store the fingerprints in direct ByteBuffers
+	 * @param verify keep the states and compare them when fingerprints match
+	 */
+	public FingerprintSet(int capacity, boolean offHeap, boolean verify) {
+		this.offHeap = offHeap;
+		allocate(Long.highestOneBit(Math.max(capacity, 16) - 1) << 1, verify);
+	}
+
+	/**
+	 * adds the state to the set
+	 * @param s
+	 * @return true if the state was not in the set
+	 */
+	public boolean add(State s) {
+		long fp = fingerprint(s);
+		long fp2 = s.fingerprint2();
+		long i = find(fp, fp2, s);
+		if (get(i, 0) != EMPTY)
+			return false;
+		put(i, fp, fp2);
+		if (keys != null)
+			keys[segment(i)][offset(i)] = s;
+		if (++size > capacity - (capacity >>> 2)) //keep the load factor below 3/4
+			resize();
+		return true;
+	}
+
+	/**
+	 * writes the number of fingerprints and then the fingerprints
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeLong(size);
+		for (long i = 0; i < capacity; i++) {
+			long fp = get(i, 0);
+			if (fp != EMPTY) {
+				out.writeLong(fp);
+				out.writeLong(get(i, 1));
+			}
+		}
+	}
+
+	/**
+	 * adds the fingerprints written by write. Their states are not known, so a set that verifies
+	 * states trusts the fingerprints of these.
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read(DataInputStream in) throws IOException {
+		for (long count = in.readLong(); count > 0; count--) {
+			long fp = in.readLong();
+			long fp2 = in.readLong();
+			long i = find(fp, fp2, null);
+			if (get(i, 0) != EMPTY)
+				continue;
+			put(i, fp, fp2);
+			if (++size > capacity - (capacity >>> 2))
+				resize();
+		}
+	}
+
+	public boolean contains(State s) {
+		return get(find(fingerprint(s), s.fingerprint2(), s), 0) != EMPTY;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * returns the slot that holds the state, or the empty slot where it would be added. A slot
+	 * read from a file has no state and matches by fingerprint alone.
+	 */
+	private long find(long fp, long fp2, State s) {
+		long i = (fp ^ (fp >>> 32)) & mask;
+		while (true) {
+			long stored = get(i, 0);
+			if (stored == EMPTY)
+				return i;
+			if (stored == fp && get(i, 1) == fp2) {
+				State key = keys == null ? null : keys[segment(i)][offset(i)];
+				if (key == null || key.equals(s))
+					return i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * doubles the table and re-inserts the stored fingerprints
+	 */
+	private void resize() {
+		long[][] oldTables = tables;
+		LongBuffer[] oldBuffers = buffers;
+		State[][] oldKeys = keys;
+		long oldCapacity = capacity;
+		allocate(capacity << 1, oldKeys != null);
+		for (long j = 0; j < oldCapacity; j++) {
+			int seg = segment(j);
+			int off = offset(j);
+			long fp = oldTables != null ? oldTables[seg][2*off] : oldBuffers[seg].get(2*off);
+			if (fp == EMPTY)
+				continue;
+			long fp2 = oldTables != null ? oldTables[seg][2*off + 1] : oldBuffers[seg].get(2*off + 1);
+			long i = (fp ^ (fp >>> 32)) & mask;
+			while (get(i, 0) != EMPTY)
+				i = (i + 1) & mask;
+			put(i, fp, fp2);
+			if (keys != null)
+				keys[segment(i)][offset(i)] = oldKeys[seg][off];
+		}
+	}
+
+	/**
+	 * creates an empty table of the given number of slots, a power of two
+	 */
+	private void allocate(long slots, boolean verify) {
+		capacity = slots;
+		mask = slots - 1;
+		int segmentSlots = (int) Math.min(slots, SEGMENT_SLOTS);
+		int segments = (int) (slots / segmentSlots);
+		tables = null;
+		buffers = null;
+		if (offHeap) {
+			buffers = new LongBuffer[segments];
+			for (int k = 0; k < segments; k++)
+				buffers[k] = ByteBuffer.allocateDirect(segmentSlots * 16).order(ByteOrder.nativeOrder()).asLongBuffer();
+		}
+		else
+			tables = new long[segments][segmentSlots * 2];
+		keys = verify ? new State[segments][segmentSlots] : null;
+	}
+
+	private static int segment(long slot) {
+		return (int) (slot >>> SEGMENT_BITS);
+	}
+
+	private static int offset(long slot) {
+		return (int) (slot & SEGMENT_MASK);
+	}
+
+	/**
+	 * returns the first (half 0) or second (half 1) long of a slot
+	 */
+	private long get(long slot, int half) {
+		int i = 2*offset(slot) + half;
+		return offHeap ? buffers[segment(slot)].get(i) : tables[segment(slot)][i];
+	}
+
+	private void put(long slot, long fp, long fp2) {
+		int i = 2*offset(slot);
+		if (offHeap) {
+			LongBuffer buffer = buffers[segment(slot)];
+			buffer.put(i, fp);
+			buffer.put(i + 1, fp2);
+		}
+		else {
+			long[] table = tables[segment(slot)];
+			table[i] = fp;
+			table[i + 1] = fp2;
+		}
+	}
+
+	/**
+	 * first half of the fingerprint of a state; 0 marks an empty slot, so it is never returned
+	 */
+	private static long fingerprint(State s) {
+		long fp = s.fingerprint();
+		return fp == EMPTY ? 1 : fp;
+	}
+
+}
@@ -1,49 +1,95 @@
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Heuristics class calculates the cost from current state to the goal, and returns the optimal cost.
- * It implements three different heuristics - Manhattan Distance, Euclidean Distance, and Hungarian Algorithm
+ * It implements three different heuristics - Manhattan Distance, Euclidean Distance, and Hungarian Algorithm.
+ * Box to goal distances are the push distances precomputed by Problem, so walls are taken into account;
+ * Manhattan and Euclidean distance are only used for the player.
+ * <p>
+ * A Heuristics object can be shared by searches running at the same time. The cost matrix and
+ * the Hungarian algorithm are scratch space, kept in a Workspace; a search takes one from the
+ * pool when it starts and gives it back when it ends.
  * @author Hyun Seung Hong (hh2473)
  *
  */
 public class Heuristics {
-	
-	private HashSet<Coordinate> goals;
-	double[][] cost;
-	HungarianAlgorithm h;
-	char hChoice;
-	
+
+	private final Problem p;
+	private final int[] goals;
+	private final int size; //rows and columns of the cost matrix: the boxes or goals, whichever are more
+	final char hChoice;
+	private final ConcurrentLinkedQueue<Workspace> pool = new ConcurrentLinkedQueue<Workspace>();
+
+	/**
+	 * the scratch space of one search: the cost matrix of the assignment and the Hungarian
+	 * algorithm that solves it
+	 */
+	static class Workspace {
+		final double[][] cost;
+		final HungarianAlgorithm h;
+
+		Workspace(int size) {
+			cost = new double[size][size];
+			h = new HungarianAlgorithm(size);
+		}
+	}
+
 	/**
-	 * Stores coordinates for goals, and initializes array for cost.
-	 * @param goals
+	 * Stores floor cells for goals.
+	 * @param p
+	 * @param hChoice
 	 */
-	public Heuristics(HashSet<Coordinate> goals, char hChoice) {
-		this.goals = goals;
+	public Heuristics(Problem p, char hChoice) {
+		this.p = p;
+		this.goals = p.goalCells;
 		this.hChoice = hChoice;
-		this.cost = new double[goals.size()][goals.size()];
-		h = new HungarianAlgorithm(cost.length);
+		int boxes = 0;
+		for (int box = p.initialState.nextBox(0); box >= 0; box = p.initialState.nextBox(box+1))
+			boxes++;
+		this.size = Math.max(boxes, goals.length);
 	}
-	
+
+	/**
+	 * takes a workspace from the pool, or creates one if the pool is empty
+	 * @return
+	 */
+	Workspace acquire() {
+		Workspace w = pool.poll();
+		return w != null ? w : new Workspace(size);
+	}
+
 	/**
-	 * Gets two coordinates as variables, and adds the sum of differences of rows and columns
-	 * to get distance between two coordinates
-	 * @param c1 coodinate 1
-	 * @param c2 coordinate 2
+	 * gives a workspace back to the pool; it must not be used afterwards
+	 * @param w
+	 */
+	void release(Workspace w) {
+		if (w != null)
+			pool.offer(w);
+	}
+
+	/**
+	 * Gets two floor cells as variables, and adds the sum of differences of rows and columns
+	 * to get distance between two cells
+	 * @param c1 cell 1
+	 * @param c2 cell 2
 	 * @return distance from c1 to c2
 	 */
-	private int manhattan(Coordinate c1, Coordinate c2) {
-		return Math.abs(c1.row-c2.row) + Math.abs(c1.col-c2.col);
+	private int manhattan(int c1, int c2) {
+		return Math.abs(p.cellRow[c1]-p.cellRow[c2]) + Math.abs(p.cellCol[c1]-p.cellCol[c2]);
 	}
-	
+
 	/**
-	 * Gets two coordinates as variables, and calculates straight line distance by squaring row and column
+	 * Gets two floor cells as variables, and calculates straight line distance by squaring row and column
 	 * values and taking the square root of them.
-	 * @param c1 coordinate 1
-	 * @param c2 coordinate 2
+	 * @param c1 cell 1
+	 * @param c2 cell 2
 	 * @return distance from c1 to c2
 	 */
-	private double euclidean(Coordinate c1, Coordinate c2) {
-		return Math.sqrt((double)((c1.row-c2.row)*(c1.row-c2.row)+(c1.col-c2.col)*(c1.col-c2.col)));
+	private double euclidean(int c1, int c2) {
+		int dRow = p.cellRow[c1]-p.cellRow[c2];
+		int dCol = p.cellCol[c1]-p.cellCol[c2];
+		return Math.sqrt((double)(dRow*dRow + dCol*dCol));
 	}
 
 	/**
@@ -53,83 +99,181 @@ public class Heuristics {
 	 * @return sum of distances for player and boxes
 	 */
 	public double calculate(State s, String method) {
-		HashSet<Coordinate> boxes = s.boxes;
+		boolean isManhattan = method.equals("m");
 		double sum = 0;
-		
+
 		//get distance from player to boxes, and add to sum
-		Coordinate player = s.player;
-		double playerMin = getDist(player, boxes, method);
-		sum+= playerMin;
-		
-		//get distance from boxes to goals, add each minimum distance to the sum
-		for (Coordinate b : boxes) {
-			double boxMin = getDist(b, goals, method);
-			sum += boxMin;
-		}
-		
+		double playerMin = 1000000;
+		for (int b = s.nextBox(0); b >= 0; b = s.nextBox(b+1))
+			playerMin = Math.min(playerMin, getDist(s.player, b, isManhattan));
+		sum += playerMin;
+
+		//get push distance from boxes to goals, add each minimum distance to the sum
+		for (int b = s.nextBox(0); b >= 0; b = s.nextBox(b+1))
+			sum += p.minPushDistance[b];
+
 		return sum;
 	}
 
 	/**
-	 * Calculates minimum distance from given object to each set of coordinates
-	 * @param obj
-	 * @param sets
-	 * @param method
-	 * @return distance from obj to closest coordinate in the hashset
+	 * Calculates distance between two floor cells according to given heuristic choice
+	 * @param c1
+	 * @param c2
+	 * @param isManhattan
+	 * @return distance from c1 to c2
 	 */
-	private double getDist(Coordinate obj, HashSet<Coordinate> sets, String method) {
-		double minDist = 1000000;
-		
-		//For each coordinate in a set, calculate the distance according to given heuristic choice
-		for (Coordinate c : sets) {
-			double dist;
-			if (method.equals("m"))
-				dist = manhattan(obj, c);
-			else
-				dist = euclidean(obj, c);
-			if (dist < minDist)
-				minDist = dist;
+	private double getDist(int c1, int c2, boolean isManhattan) {
+		if (isManhattan)
+			return manhattan(c1, c2);
+		return euclidean(c1, c2);
+	}
+
+	/**
+	 * Assignment stores the optimal matching of boxes to goals for one state, together with
+	 * the labels the Hungarian algorithm ended with, so the assignment of a child state can be
+	 * repaired from it. Row i of the cost matrix belongs to the box on cell rowBox[i]; a box keeps
+	 * its row when it is pushed. Assignments are never modified once they are created.
+	 */
+	static class Assignment {
+		final int[] rowBox;
+		final int[] match;
+		final double[] workerLabels;
+		final double[] jobLabels;
+		final double cost; //sum of the push distances of the matched boxes and goals
+
+		Assignment(int[] rowBox, int[] match, double[] workerLabels, double[] jobLabels, double cost) {
+			this.rowBox = rowBox;
+			this.match = match;
+			this.workerLabels = workerLabels;
+			this.jobLabels = jobLabels;
+			this.cost = cost;
 		}
-		
-		return minDist;
 	}
-	
+
 	/**
-	 * Gets state as a parameter, and calculates cost from current state to goal state 
+	 * Gets state as a parameter, and calculates cost from current state to goal state
 	 * using the input heuristics choice (hChoice)
 	 * @param state
 	 * @return
 	 */
 	public double getHeuristic(State state) {
-		
+
 		if (hChoice == 'm')
 			return calculate(state, "m");
 		if (hChoice == 'e')
 			return calculate(state, "e");
-		
-		int i=0;
-		for (Coordinate box : state.boxes) {
-			int j=0;
-			double playerCost = manhattan(state.player, box);
-			for (Coordinate goal : goals) {
-				cost[i][j] = manhattan(box, goal);
-				cost[i][j] += playerCost;
-				j++;
-			}
-			i++;
+		Workspace w = acquire();
+		try {
+			return combine(state, assign(w, state, null, -1));
+		} finally {
+			release(w);
 		}
-		
-		int[] result = h.execute(cost);
-		double max = 0;
-		for (int k=0; k<goals.size(); k++) {
-			int goalCol = result[k];
-			if (goalCol>-1)
-				max += cost[k][goalCol];
+	}
+
+	/**
+	 * Calculates the heuristic of a node. For the Hungarian and max heuristics the assignment of
+	 * the parent node is reused: a move that does not push a box keeps it, and a push only
+	 * changes the row of the pushed box, which is repaired instead of solved from scratch.
+	 * The assignment is stored on the node for its children.
+	 * @param n
+	 * @param w workspace of the calling search
+	 * @return
+	 */
+	public double getHeuristic(Node n, Workspace w) {
+		if (hChoice == 'm' || hChoice == 'e')
+			return getHeuristic(n.state);
+		Assignment parent = n.parent == null ? null : n.parent.assignment;
+		n.assignment = assign(w, n.state, parent, n.push);
+		return combine(n.state, n.assignment);
+	}
+
+	/**
+	 * Returns a lower bound on the cost from the state of a node to the goal, for searches that
+	 * have to find the cheapest solution: the least total push distance of the boxes, plus, when
+	 * the cost counts player steps, the steps the player needs to get next to a box before its
+	 * first push. The other heuristics also add the walk to every box, which one step or push may
+	 * cover, so they can overestimate. The assignment is reused and stored as in getHeuristic.
+	 * @param n
+	 * @param w workspace of the calling search
+	 * @param steps whether the cost counts player steps rather than pushes
+	 * @return
+	 */
+	public double getLowerBound(Node n, Workspace w, boolean steps) {
+		if (n.assignment == null) {
+			Assignment parent = n.parent == null ? null : n.parent.assignment;
+			n.assignment = assign(w, n.state, parent, n.push);
 		}
+		double bound = n.assignment.cost;
+		if (!steps || bound == 0)
+			return bound;
+		int walk = Integer.MAX_VALUE;
+		for (int box = n.state.nextBox(0); box >= 0; box = n.state.nextBox(box+1))
+			walk = Math.min(walk, manhattan(n.state.player, box));
+		return bound + Math.max(0, walk - 1);
+	}
+
+	/**
+	 * adds the player distances to the assignment, and takes the maximum with the other
+	 * heuristics for hChoice 'x'
+	 */
+	private double combine(State state, Assignment a) {
+		double max = a.cost;
+		for (int box = state.nextBox(0); box >= 0; box = state.nextBox(box+1))
+			max += manhattan(state.player, box);
 		if (hChoice == 'h')
 			return max;
-		
+
 		return Math.max(Math.max(calculate(state, "m"), calculate(state, "e")), max);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Matches boxes to goals with the least total push distance. Without a parent assignment
+	 * the cost matrix is solved from scratch. The matrix is square: missing boxes cost nothing,
+	 * and a box matched to a missing goal costs UNREACHABLE, so a level with more boxes than
+	 * goals is never solved.
+	 * @param w
+	 * @param state
+	 * @param parent assignment of the parent state, or null
+	 * @param push push that led from the parent to the state, or -1
+	 * @return
+	 */
+	private Assignment assign(Workspace w, State state, Assignment parent, int push) {
+		if (parent != null && push < 0)
+			return parent;
+		int[] rowBox;
+		int row = -1;
+		if (parent != null) {
+			rowBox = parent.rowBox.clone();
+			while (rowBox[++row] != push >> 2);
+			rowBox[row] = p.neighbor[push];
+		}
+		else {
+			rowBox = new int[size];
+			Arrays.fill(rowBox, -1);
+			int i = 0;
+			for (int box = state.nextBox(0); box >= 0 && i < size; box = state.nextBox(box+1))
+				rowBox[i++] = box;
+		}
+		double[][] cost = w.cost;
+		for (int i=0; i<size; i++)
+			for (int j=0; j<size; j++)
+				cost[i][j] = rowBox[i] < 0 ? 0 : j < goals.length ? p.pushDistance(j, rowBox[i]) : Problem.UNREACHABLE;
+
+		int[] result;
+		if (parent != null)
+			result = w.h.repair(cost, parent.workerLabels, parent.jobLabels, parent.match, row);
+		else
+			result = w.h.execute(cost, false);
+		double[] workerLabels = new double[size];
+		double[] jobLabels = new double[size];
+		w.h.getLabels(workerLabels, jobLabels);
+		double sum = 0;
+		for (int k=0; k<size; k++) {
+			int goalCol = result[k];
+			if (goalCol>-1)
+				sum += cost[k][goalCol];
+		}
+		return new Assignment(rowBox, result, workerLabels, jobLabels, sum);
+	}
+
+}
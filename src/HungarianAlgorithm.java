@@ -74,8 +74,25 @@ public class HungarianAlgorithm {
 		 * smallest element, compute an initial non-zero dual feasible solution
 		 * and create a greedy matching from workers to jobs of the cost matrix.
 		 */
+		return execute(costMatrix, true);
+	}
+
+	/**
+	 * Execute the algorithm, optionally without reducing the cost matrix
+	 * first. Without the reduction the matrix is left unchanged, and the
+	 * labels are feasible for the matrix as given, so they can be passed to
+	 * {@link #repair} later.
+	 * 
+	 * @return the minimum cost matching of workers to jobs
+	 */
+	public int[] execute(double[][] costMatrix, boolean reduce) {
 		this.costMatrix = costMatrix;
-		reduce();
+		//the same instance is used for every state, so start from an empty matching
+		Arrays.fill(labelByWorker, 0);
+		Arrays.fill(matchJobByWorker, -1);
+		Arrays.fill(matchWorkerByJob, -1);
+		if (reduce)
+			reduce();
 		computeInitialFeasibleSolution();
 		greedyMatch();
 
@@ -94,6 +111,56 @@ public class HungarianAlgorithm {
 		return result;
 	}
 
+	/**
+	 * Repair an optimal matching after a single row of the cost matrix
+	 * changed. The labels and the matching of the previous matrix are
+	 * loaded, worker w is unmatched and its label lowered until every edge
+	 * of the new row is feasible again. All other edges are unchanged, so
+	 * one phase rematches w in O(n^2) instead of solving from scratch.
+	 * 
+	 * @param costMatrix
+	 *            the cost matrix, equal to the previous one except for row w
+	 * @param workerLabels
+	 *            labels of the workers for the previous matrix
+	 * @param jobLabels
+	 *            labels of the jobs for the previous matrix
+	 * @param matching
+	 *            optimal matching of the previous matrix
+	 * @param w
+	 *            the row that changed
+	 * @return the minimum cost matching of workers to jobs
+	 */
+	public int[] repair(double[][] costMatrix, double[] workerLabels, double[] jobLabels,
+			int[] matching, int w) {
+		this.costMatrix = costMatrix;
+		System.arraycopy(workerLabels, 0, labelByWorker, 0, dim);
+		System.arraycopy(jobLabels, 0, labelByJob, 0, dim);
+		Arrays.fill(matchWorkerByJob, -1);
+		for (int worker = 0; worker < dim; worker++) {
+			matchJobByWorker[worker] = matching[worker];
+			if (matching[worker] >= 0)
+				matchWorkerByJob[matching[worker]] = worker;
+		}
+		matchWorkerByJob[matchJobByWorker[w]] = -1;
+		matchJobByWorker[w] = -1;
+		double label = Double.POSITIVE_INFINITY;
+		for (int j = 0; j < dim; j++)
+			label = Math.min(label, costMatrix[w][j] - labelByJob[j]);
+		labelByWorker[w] = label;
+		initializePhase(w);
+		executePhase();
+		return Arrays.copyOf(matchJobByWorker, rows);
+	}
+
+	/**
+	 * Copy the current labels, so that a later call to {@link #repair} can
+	 * start from them.
+	 */
+	public void getLabels(double[] workerLabels, double[] jobLabels) {
+		System.arraycopy(labelByWorker, 0, workerLabels, 0, dim);
+		System.arraycopy(labelByJob, 0, jobLabels, 0, dim);
+	}
+
 	/**
 	 * Execute a single phase of the algorithm. A phase of the Hungarian
 	 * algorithm consists of building a set of committed workers and a set of
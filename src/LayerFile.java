@@ -0,0 +1,229 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+
+/**
+ * LayerFile is a file of fixed-size records of longs that is written once and then read from
+ * start to end, through a FileChannel and a direct buffer, so that it only needs sequential
+ * disk bandwidth. External breadth-first search keeps its layers, sorted runs and visited
+ * fingerprints in LayerFiles whose records start with a 128-bit fingerprint; find looks a
+ * record up by it with a binary search when the file is sorted.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class LayerFile {
+
+	private static final int BUFFER_BYTES = 1 << 20; //per writer
+	private static final int READ_BYTES = 1 << 16; //per reader; merges read many files at once
+
+	/**
+	 * orders records by their fingerprint
+	 */
+	static final Comparator<long[]> ORDER = new Comparator<long[]>() {
+		public int compare(long[] a, long[] b) {
+			return LayerFile.compare(a[0], a[1], b[0], b[1]);
+		}
+	};
+
+	/**
+	 * orders readers by the fingerprint of their current record, for merging sorted files
+	 */
+	static final Comparator<Reader> READER_ORDER = new Comparator<Reader>() {
+		public int compare(Reader a, Reader b) {
+			return ORDER.compare(a.record, b.record);
+		}
+	};
+
+	private final File file;
+	private final int recordLongs;
+	private long size; //records written
+
+	/**
+	 * writes the records of a LayerFile in order
+	 */
+	public class Writer {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.nativeOrder());
+
+		private Writer() {
+			try {
+				channel = new FileOutputStream(file).getChannel();
+			} catch (IOException e) {
+				throw failure("create", e);
+			}
+		}
+
+		public void write(long[] record) {
+			if (buffer.remaining() < recordLongs * 8)
+				flush();
+			for (int i = 0; i < recordLongs; i++)
+				buffer.putLong(record[i]);
+			size++;
+		}
+
+		public void close() {
+			flush();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw failure("write", e);
+			}
+		}
+
+		private void flush() {
+			buffer.flip();
+			try {
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			} catch (IOException e) {
+				throw failure("write", e);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * reads the records of a LayerFile from start to end
+	 */
+	public class Reader {
+		final long[] record = new long[recordLongs]; //the record read by the last call of next
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(READ_BYTES, recordLongs * 8))
+				.order(ByteOrder.nativeOrder());
+		private long left = size;
+
+		private Reader() {
+			try {
+				channel = new FileInputStream(file).getChannel();
+			} catch (IOException e) {
+				throw failure("open", e);
+			}
+			buffer.flip();
+		}
+
+		/**
+		 * reads the next record into record
+		 * @return false at the end of the file
+		 */
+		public boolean next() {
+			if (left == 0)
+				return false;
+			try {
+				if (buffer.remaining() < recordLongs * 8) {
+					buffer.compact();
+					while (buffer.position() < recordLongs * 8 && channel.read(buffer) >= 0);
+					buffer.flip();
+				}
+			} catch (IOException e) {
+				throw failure("read", e);
+			}
+			for (int i = 0; i < recordLongs; i++)
+				record[i] = buffer.getLong();
+			left--;
+			return true;
+		}
+
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw failure("read", e);
+			}
+		}
+	}
+
+	/**
+	 * @param file
+	 * @param recordLongs longs in a record
+	 */
+	public LayerFile(File file, int recordLongs) {
+		this.file = file;
+		this.recordLongs = recordLongs;
+	}
+
+	/**
+	 * starts writing the file from the beginning
+	 * @return
+	 */
+	public Writer writer() {
+		size = 0;
+		return new Writer();
+	}
+
+	/**
+	 * starts reading the file; the writer must be closed
+	 * @return
+	 */
+	public Reader reader() {
+		return new Reader();
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * finds the record with the given fingerprint in a file sorted by fingerprint
+	 * @param fp
+	 * @param fp2
+	 * @param record receives the record
+	 * @return false if there is none
+	 */
+	public boolean find(long fp, long fp2, long[] record) {
+		ByteBuffer buffer = ByteBuffer.allocate(recordLongs * 8).order(ByteOrder.nativeOrder());
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				long low = 0, high = size - 1;
+				while (low <= high) {
+					long mid = (low + high) >>> 1;
+					buffer.clear();
+					while (buffer.hasRemaining() && channel.read(buffer, mid * recordLongs * 8 + buffer.position()) >= 0);
+					buffer.flip();
+					for (int i = 0; i < recordLongs; i++)
+						record[i] = buffer.getLong();
+					int c = compare(record[0], record[1], fp, fp2);
+					if (c == 0)
+						return true;
+					if (c < 0)
+						low = mid + 1;
+					else
+						high = mid - 1;
+				}
+				return false;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw failure("read", e);
+		}
+	}
+
+	public void delete() {
+		file.delete();
+		size = 0;
+	}
+
+	/**
+	 * compares two fingerprints
+	 */
+	static int compare(long fp, long fp2, long otherFp, long otherFp2) {
+		if (fp != otherFp)
+			return fp < otherFp ? -1 : 1;
+		if (fp2 != otherFp2)
+			return fp2 < otherFp2 ? -1 : 1;
+		return 0;
+	}
+
+	private IllegalStateException failure(String action, IOException e) {
+		return new IllegalStateException("Could not " + action + " " + file + ": " + e.getMessage(), e);
+	}
+
+}
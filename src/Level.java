@@ -0,0 +1,39 @@
+/**
+ * Level holds one puzzle as the rows of its board, in the characters of the level files:
+ * # wall, space floor, . goal, $ box, * box on a goal, @ player and + player on a goal.
+ * Levels are read from collection files by LevelReader, or from a single-level file by
+ * SokobanSolver.loadFile, and given to SokobanSolver.load to be solved.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class Level {
+
+	final String title;
+	final int number; //position in the collection, from 1
+	final String[] rows;
+
+	/**
+	 * @param title
+	 * @param number position in the collection, from 1
+	 * @param rows
+	 */
+	public Level(String title, int number, String[] rows) {
+		this.title = title;
+		this.number = number;
+		this.rows = rows;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	@Override
+	public String toString() {
+		return title;
+	}
+
+}
@@ -0,0 +1,184 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * LevelReader reads the levels of a collection file in the XSB (.sok) format one at a time,
+ * so that a collection of any size is never held in memory at once. A level is a block of board
+ * lines; every other line is a title, a comment or other text:
+ * <ul>
+ * <li>a board line holds only board characters and at least one wall. Runs of a character may
+ * be written as a count followed by the character, | separates rows written on one line, and
+ * - and _ are floor. p, P, b and B are read as @, +, $ and *.</li>
+ * <li>a "Title:" line names the level before it. A level without one is named after the last
+ * text line before it, without a leading ';', or else after its number.</li>
+ * <li>the lines of a "Comment:" block, up to "Comment-End:", are skipped.</li>
+ * </ul>
+ * Lines are read through a buffered reader with a large buffer and only the rows of the next
+ * level are kept, so reading a collection takes about as long as reading the file.
+ * Read errors are thrown as IllegalStateException.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class LevelReader implements Iterator<Level>, Iterable<Level>, Closeable {
+
+	private static final int BUFFER_CHARS = 1 << 16;
+	private static final String TITLE = "title:";
+
+	private final File file;
+	private final BufferedReader in;
+	private String line; //line read ahead, or null at the end of the file
+	private String text; //last text line since the previous level, a title for the next one
+	private Level next; //level read ahead, or null
+	private int number;
+
+	/**
+	 * opens a collection file
+	 * @param file
+	 * @throws IOException
+	 */
+	public LevelReader(File file) throws IOException {
+		this.file = file;
+		this.in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "ISO-8859-1"), BUFFER_CHARS);
+		line = readLine();
+		next = readLevel();
+	}
+
+	public Iterator<Level> iterator() {
+		return this;
+	}
+
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	/**
+	 * returns the next level and reads the one after it
+	 */
+	public Level next() {
+		if (next == null)
+			throw new NoSuchElementException();
+		Level level = next;
+		next = readLevel();
+		return level;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * reads lines up to the next board, the board, and the lines up to the board after it,
+	 * which may hold its title
+	 * @return the level, or null at the end of the file
+	 */
+	private Level readLevel() {
+		ArrayList<String> rows = new ArrayList<String>();
+		for (; line != null && rows.isEmpty(); line = readLine())
+			if (!board(line, rows))
+				skip();
+		if (rows.isEmpty())
+			return null;
+		for (; line != null && board(line, rows); line = readLine());
+		String title = text;
+		text = null;
+		for (; line != null && !board(line, null); line = readLine()) {
+			if (line.regionMatches(true, 0, TITLE, 0, TITLE.length()))
+				title = line.substring(TITLE.length()).trim();
+			else
+				skip();
+		}
+		number++;
+		if (title == null || title.length() == 0)
+			title = "Level " + number;
+		return new Level(title, number, rows.toArray(new String[rows.size()]));
+	}
+
+	/**
+	 * takes in a line that is not a board line: keeps text as the title candidate and skips
+	 * comment blocks
+	 */
+	private void skip() {
+		String t = line.trim();
+		if (t.equalsIgnoreCase("comment:")) {
+			for (line = readLine(); line != null; line = readLine())
+				if (line.regionMatches(true, 0, "comment-end:", 0, 12) || line.regionMatches(true, 0, "comment_end:", 0, 12))
+					break;
+			return;
+		}
+		if (t.startsWith(";"))
+			t = t.substring(1).trim();
+		if (t.length() > 0 && t.indexOf(':') < 0)
+			text = t;
+	}
+
+	/**
+	 * checks whether a line is a board line and, if rows is not null, adds its rows
+	 * @param line
+	 * @param rows
+	 * @return
+	 */
+	private static boolean board(String line, ArrayList<String> rows) {
+		int end = line.length();
+		while (end > 0 && Character.isWhitespace(line.charAt(end-1)))
+			end--;
+		boolean wall = false;
+		for (int i = 0; i < end; i++) {
+			char c = line.charAt(i);
+			if (c == '#')
+				wall = true;
+			else if (" -_.$*@+pPbB|".indexOf(c) < 0 && (c < '0' || c > '9'))
+				return false;
+		}
+		if (!wall)
+			return false;
+		if (rows == null)
+			return true;
+		StringBuilder row = new StringBuilder(end);
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9') {
+				count = count*10 + c - '0';
+				continue;
+			}
+			if (c == '|') {
+				rows.add(row.toString());
+				row.setLength(0);
+			}
+			else {
+				switch (c) {
+				case '-': case '_': c = ' '; break;
+				case 'p': c = '@'; break;
+				case 'P': c = '+'; break;
+				case 'b': c = '$'; break;
+				case 'B': c = '*'; break;
+				}
+				for (int k = Math.max(1, count); k > 0; k--)
+					row.append(c);
+			}
+			count = 0;
+		}
+		rows.add(row.toString());
+		return true;
+	}
+
+	private String readLine() {
+		try {
+			return in.readLine();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+}
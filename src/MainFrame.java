@@ -8,7 +8,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
 
 import javax.imageio.ImageIO;
 
@@ -21,11 +23,14 @@ import javax.imageio.ImageIO;
 public class MainFrame extends JFrame {
 
 	private static final long serialVersionUID = 1L;
+	private static final long PROGRESS_PERIOD = 500; //ms between progress updates of a running search
 	private SokobanSolver solver;
-	private JButton submit, next, prev;
+	private SolveWorker worker; //the running solve, or null
+	private JButton submit, next, prev, cancel;
 	private JTextArea answerText;
 	private JLabel loadingLabel, stepLabel;
 	private JComboBox searchMenu, heuristicsMenu; //scroll-down menus for search methods and heuristics
+	private JCheckBox pushLevelBox; //search over box pushes instead of player moves
 	private char hChoice = ' ';
 	private JPanel questionPanel;
 	
@@ -47,7 +52,7 @@ public class MainFrame extends JFrame {
 	
 	// choices for scroll-down menu
 	private String[] choices = {"Breadth-First", "Depth-First", "Uniform-Cost", 
-			"Greedy", "A*"}; 
+			"Greedy", "A*", "IDA*", "Two-Way (bidirectional)", "External-memory BFS"}; 
 	
 	private String[] hChoices = {"Manhattan", "Euclidean", 
 			"Hungarian", "Max{h1, h2, h3}"};
@@ -107,10 +112,15 @@ public class MainFrame extends JFrame {
 		next = new JButton("Next");
 		next.setVisible(false);
 		
+		// cancel button stops the running search
+		cancel = new JButton("Cancel");
+		cancel.setVisible(false);
+		
 		loadingPanel.add(loadingLabel);
 		loadingPanel.add(stepLabel);
 		loadingPanel.add(prev);
 		loadingPanel.add(next);
+		loadingPanel.add(cancel);
 		
 		// set constraints and spaces between labels
 		layout.putConstraint(SpringLayout.WEST, loadingLabel,
@@ -121,6 +131,10 @@ public class MainFrame extends JFrame {
 				SpringLayout.EAST, loadingPanel);
 		layout.putConstraint(SpringLayout.NORTH, next, 10, 
 				SpringLayout.NORTH, loadingPanel);
+		layout.putConstraint(SpringLayout.EAST, cancel, -10, 
+				SpringLayout.EAST, loadingPanel);
+		layout.putConstraint(SpringLayout.NORTH, cancel, 10, 
+				SpringLayout.NORTH, loadingPanel);
 		layout.putConstraint(SpringLayout.EAST, prev, 10, 
 				SpringLayout.WEST, next);
 		layout.putConstraint(SpringLayout.NORTH, prev, 10, 
@@ -191,6 +205,8 @@ public class MainFrame extends JFrame {
 		heuristicsMenu.setEditable(false);
 		heuristicsMenu.setVisible(false);
 		
+		pushLevelBox = new JCheckBox("Push-level");
+		
 		// add submit button to the questionPanel
 		submit = new JButton("Solve");
 		
@@ -201,6 +217,7 @@ public class MainFrame extends JFrame {
 		labelPanel.add(questionField1);
 		labelPanel.add(questionLabel2);
 		labelPanel.add(heuristicsMenu);
+		labelPanel.add(pushLevelBox);
 		setLayoutBounds(layout, labelPanel); // set bounds between each labels
 		
 		questionPanel.add(searchMenu, BorderLayout.WEST);	
@@ -237,82 +254,40 @@ public class MainFrame extends JFrame {
 			}
 		});
 		
-		// add mouseListner to submit button
-		submit.addMouseListener(new MouseListener() {
-			public void mouseClicked(MouseEvent arg0) {
-			}
-			public void mouseEntered(MouseEvent arg0) {
-			}
-			public void mouseExited(MouseEvent arg0) {
-			}
-			public void mouseReleased(MouseEvent arg0) {
-			}
-
-			// display loading message when mouse is pressed
-			public void mousePressed(MouseEvent arg0) {
-				if (submit.isEnabled()) {
-					stepLabel.setVisible(false);
-					prev.setVisible(false);
-					next.setVisible(false);
-					displaySolvingMessage(questionSelected);
-				}
-			}
-		});
-		
 		// add actionListner to submit button
 		submit.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
+				if (worker != null)
+					return;
+				stepLabel.setVisible(false);
+				prev.setVisible(false);
+				next.setVisible(false);
+				submit.setEnabled(false);
+				searchMenu.setEnabled(false);
+				cancel.setVisible(true);
+				cancel.setEnabled(true);
+				displaySolvingMessage(questionSelected);
 				
-				// get answer from the SokobanSolver, and display it
-				// on the center panel
-				try {
-					int numPlayer = solver.loadFile(questionField1.getText(), hChoice);
-					if (numPlayer != 1) {
-						displayMessage("Please have only 1 player in the puzzle");
-					}
-					else {
-						numRow = solver.getRow();
-						numCol = solver.getCol();
-						goals = solver.getGoals();
-						walls = solver.getWalls();
-						boxes = solver.getBoxes();
-						player = solver.getPlayer();
-						currentStep = 0;
-						char method = Character.toLowerCase(questionSelected.charAt(0));
-						String answer = solver.solve(method);
-						System.out.println(answer);
-						String[] lines = answer.split("\\r?\\n");
-						solution = lines[1];
-						steps = solution.split(" ");
-						puzzleStates = new String[steps.length+1];
-						String totalSteps = lines[2];
-						answerText.setText("Solution: " + solution + " " + totalSteps);
-						String runtime = answer.substring(answer.indexOf("units")+7);
-						String message = questionSelected + " search. Total runtime : " + runtime;
-						if (answer.contains("Failed")) {
-							displayMessage("No solution found using " + message);
-							repaint();
-						}
-						else {
-							displayMessage("Solution found using " + message);
-							stepLabel.setVisible(true);
-							prev.setVisible(true);
-							next.setVisible(true);
-							updatePuzzle();
-						}
-					}
-				} catch (NumberFormatException e) {
-					displayMessage("File incorrectly formatted! First line needs to " +
-							"contain total number of rows in the puzzle");
-				} catch (FileNotFoundException e) {
-					displayMessage("File: \"" + questionField1.getText() + "\" not found!");
-				} catch (NoSuchElementException e) {
-					displayMessage("File incorrectly formatted! First line needs to " +
-							"contain total number of rows in the puzzle");
-				}
+				// solve on a background thread; the answer is displayed
+				// on the center panel when it is done
+				char method = Character.toLowerCase(questionSelected.charAt(0));
+				solver.clearCancel();
+				worker = new SolveWorker(questionField1.getText(), hChoice, method, pushLevelBox.isSelected());
+				worker.execute();
 			}
 		});	
 		
+		// add actionListener to cancel button
+		cancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				if (worker != null) {
+					solver.cancel();
+					cancel.setEnabled(false);
+					displayMessage("Cancelling the " + questionSelected + " search...");
+				}
+			}
+		});
+		
 		// add actionListener to prev button
 		prev.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
@@ -374,6 +349,106 @@ public class MainFrame extends JFrame {
 	
 	}
 
+	/**
+	 * SolveWorker loads the puzzle and solves it off the event dispatch thread, so the window
+	 * stays responsive. The metrics snapshots of the running search are shown in the loading
+	 * label, and the cancel button stops the search cooperatively through the solver.
+	 */
+	private class SolveWorker extends SwingWorker<SearchResult, SearchMetrics.Snapshot> {
+		private final String filename;
+		private final char hChoice;
+		private final char method;
+		private final boolean pushLevel;
+		private final String methodName = questionSelected;
+		private int numPlayer;
+
+		SolveWorker(String filename, char hChoice, char method, boolean pushLevel) {
+			this.filename = filename;
+			this.hChoice = hChoice;
+			this.method = method;
+			this.pushLevel = pushLevel;
+		}
+
+		protected SearchResult doInBackground() throws Exception {
+			numPlayer = solver.loadFile(filename, hChoice);
+			if (numPlayer != 1)
+				return null;
+			solver.setMetrics(PROGRESS_PERIOD, true, new SearchMetrics.Listener() {
+				public void snapshot(SearchMetrics.Snapshot s) {
+					publish(s);
+				}
+			});
+			String answer = solver.solve(method, pushLevel);
+			System.out.println(answer);
+			return solver.getResult();
+		}
+
+		protected void process(List<SearchMetrics.Snapshot> snapshots) {
+			if (worker == this && cancel.isEnabled())
+				displayProgress(methodName, snapshots.get(snapshots.size()-1));
+		}
+
+		protected void done() {
+			worker = null;
+			cancel.setVisible(false);
+			submit.setEnabled(true);
+			searchMenu.setEnabled(true);
+			try {
+				SearchResult result = get();
+				if (result == null)
+					displayMessage("Please have only 1 player in the puzzle");
+				else
+					showResult(methodName, result);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof NumberFormatException || cause instanceof NoSuchElementException)
+					displayMessage("File incorrectly formatted! First line needs to " +
+							"contain total number of rows in the puzzle");
+				else if (cause instanceof FileNotFoundException)
+					displayMessage("File: \"" + filename + "\" not found!");
+				else if (cause instanceof OutOfMemoryError)
+					displayMessage("Ran out of memory using " + methodName + " search");
+				else
+					displayMessage("Could not solve the puzzle: " + cause);
+			}
+		}
+	}
+
+	/**
+	 * Displays the solution of a finished search on the center panel
+	 * @param methodName
+	 * @param result
+	 */
+	private void showResult(String methodName, SearchResult result) {
+		numRow = solver.getRow();
+		numCol = solver.getCol();
+		goals = solver.getGoals();
+		walls = solver.getWalls();
+		boxes = solver.getBoxes();
+		player = solver.getPlayer();
+		currentStep = 0;
+		steps = result.getMoves();
+		solution = result.isSolved() ? result.getSolution() + " " : "Failed to solve the puzzle";
+		puzzleStates = new String[steps.length+1];
+		answerText.setText("Solution: " + solution + " (total of " + steps.length + " steps)");
+		String message = methodName + " search. Total runtime : " + result.getTime() + "ms";
+		if (result.getStatus() == SearchResult.Status.CANCELLED) {
+			displayMessage("Cancelled the " + message);
+		}
+		else if (!result.isSolved()) {
+			displayMessage("No solution found using " + message);
+		}
+		else {
+			displayMessage("Solution found using " + message);
+			stepLabel.setVisible(true);
+			prev.setVisible(true);
+			next.setVisible(true);
+			updatePuzzle();
+		}
+	}
+
 	/**
 	 * Updates puzzle according to player and box positions
 	 */
@@ -419,6 +494,18 @@ public class MainFrame extends JFrame {
 		repaint();
 	}
 
+	/**
+	 * Displays the throughput and the frontier of the running search
+	 * @param message
+	 * @param s
+	 */
+	private void displayProgress(String message, SearchMetrics.Snapshot s) {
+		loadingLabel.setText(String.format("%s search: %.1fs, %,d nodes (%,.0f/s), " +
+				"open %,d, closed %,d", message, s.getElapsed() / 1000.0, s.getGenerated(), s.getGeneratedRate(),
+				s.getOpen(), s.getClosed()));
+		repaint();
+	}
+
 	/**
 	 * Displays appropriate message
 	 */
@@ -451,6 +538,10 @@ public class MainFrame extends JFrame {
                 1, SpringLayout.EAST, questionLabel2);
 		layout.putConstraint(SpringLayout.NORTH, heuristicsMenu,
                 12, SpringLayout.NORTH, labelPanel);
+		layout.putConstraint(SpringLayout.EAST, pushLevelBox,
+                -5, SpringLayout.EAST, labelPanel);
+		layout.putConstraint(SpringLayout.NORTH, pushLevelBox,
+                13, SpringLayout.NORTH, labelPanel);
 	}
 	
 
@@ -464,19 +555,21 @@ public class MainFrame extends JFrame {
 		questionField1.setText("[filename]");
 		questionField1.setPreferredSize(new Dimension(100, 20));
 		questionField1.setVisible(true);
+		pushLevelBox.setVisible(true);
 		submit.setEnabled(true);
 		if (selected.equals("a*")||selected.equals("greedy")) {
 			questionLabel2.setText(". Heuristics: ");
 			heuristicsMenu.setVisible(true);
 		}
 		else if (selected.equals("breadth-first")||selected.equals("depth-first")||
-				selected.equals("uniform-cost")) {
+				selected.equals("uniform-cost")||selected.equals("ida*")||selected.startsWith("two-way")||selected.startsWith("external")) {
 			questionLabel2.setText(".");
 			heuristicsMenu.setVisible(false);
 		}
 		else {
 			questionLabel1.setText("Please select a search method from the left.");
 			questionField1.setVisible(false);
+			pushLevelBox.setVisible(false);
 			questionLabel2.setText("");
 			submit.setEnabled(false);
 		}
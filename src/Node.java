@@ -1,6 +1,7 @@
-
 /**
  * Node class stores state, parent node, cost, and move (l, r, u, d)
+ * Nodes of a push-level search store the push (box*4+dir) instead of a move,
+ * and the player moves are rebuilt when the solution is printed.
  * @author Hyun Seung Hong (hh2473)
  *
  */
@@ -8,16 +9,39 @@ public class Node {
 
 	public Node parent;
 	public State state;
-	public int cost;
+	public int cost; //g, the path cost
+	int h; //heuristic, calculated once when the node is added to the fringe
+	int f; //fringe priority
+	int bound; //admissible lower bound on the cost to the goal, for searches that prune with it
 	public String move;
-	
+	public int push = -1; //box pushed by the move that led to this node, or -1
+	Heuristics.Assignment assignment; //box to goal assignment, kept until the node is expanded
+	long id = -1; //record of the node in the closed log of a spilling search, or -1
+	long parentId = -1; //record of the parent when the parent node is not kept, or -1
+
 	public Node(State state, Node parent, int cost, String move) {
 		this.state = state;
 		this.parent = parent;
 		this.cost = cost;
 		this.move = move;
 	}
-	
+
+	public Node(State state, Node parent, int cost, int push) {
+		this.state = state;
+		this.parent = parent;
+		this.cost = cost;
+		this.push = push;
+	}
+
+	/**
+	 * returns true for the node holding the initial state. A node of a spilling search may
+	 * have no parent node and still have a parent record.
+	 * @return
+	 */
+	public boolean isRoot() {
+		return parent == null && parentId < 0;
+	}
+
 	/**
 	 * Equals returns true if states in the nodes are equal
 	 */
@@ -0,0 +1,89 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * NodeQueue is the first-in first-out fringe of breadth-first search. Without a SpillStore it
+ * is a plain ArrayDeque. With one, at most hotLimit nodes stay on the heap: the oldest nodes,
+ * which are returned next, are kept at the head and the newest ones at the tail, and the nodes
+ * in between, which belong to the later layers of the search, are written to a file in chunks
+ * of hotLimit/2 and read back in the same order when the head runs out. Segment files that
+ * have been read are deleted.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class NodeQueue {
+
+	private final ArrayDeque<Node> head = new ArrayDeque<Node>();
+	private final ArrayDeque<Node> tail = new ArrayDeque<Node>();
+	private SpillStore spill; //null unless nodes are spilled to disk
+	private SegmentFile file;
+	private int chunk;
+	private long read; //next record of the file to return
+
+	public NodeQueue() {
+	}
+
+	/**
+	 * creates a queue that keeps at most hotLimit nodes on the heap and spills the others
+	 * @param spill
+	 * @param hotLimit
+	 */
+	public NodeQueue(SpillStore spill, int hotLimit) {
+		this.spill = spill;
+		this.file = spill.newFile("queue");
+		this.chunk = Math.max(1, hotLimit/2);
+	}
+
+	public void add(Node n) {
+		if (spill == null || (read == file.size() && tail.isEmpty() && head.size() < chunk)) {
+			head.add(n);
+			return;
+		}
+		tail.add(n);
+		if (tail.size() >= chunk) {
+			for (Node t : tail)
+				spill.write(file, t);
+			tail.clear();
+		}
+	}
+
+	public Node poll() {
+		if (head.isEmpty() && spill != null) {
+			if (read < file.size()) {
+				long end = Math.min(file.size(), read + chunk);
+				for (; read < end; read++)
+					head.add(spill.read(file, read, 0));
+				file.discard(read);
+				if (read == file.size()) {
+					file.truncate(0);
+					read = 0;
+				}
+			}
+			else {
+				head.addAll(tail);
+				tail.clear();
+			}
+		}
+		return head.poll();
+	}
+
+	/**
+	 * returns the nodes on the heap in the order in which they are returned. Spilled nodes are
+	 * not included.
+	 * @return
+	 */
+	public ArrayList<Node> nodes() {
+		ArrayList<Node> nodes = new ArrayList<Node>(head);
+		nodes.addAll(tail);
+		return nodes;
+	}
+
+	public long size() {
+		return (head.size() + (spill == null ? 0 : file.size() - read) + tail.size());
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+}
@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * OpenList is the fringe used by uniform-cost, greedy and A* search. Nodes are kept in buckets
+ * indexed by their priority f, and inside a bucket by their heuristic h, so that nodes are
+ * returned by lowest f, then lowest h, then last-in first-out. A hash index from state to node
+ * gives constant time membership checks. Adding a node for a state that is already on the list
+ * replaces the old node (decrease-key); the old node stays in its bucket and is skipped when it
+ * is reached.
+ * <p>
+ * A list with a SpillStore keeps at most hotLimit nodes on the heap. When it holds more, the
+ * buckets with the highest f, which will be reached last, are written to a file per f value and
+ * dropped from the heap; the bucket with the lowest f always stays. When the lowest f on the
+ * heap reaches the lowest spilled f and there is room, the spilled nodes are read back in
+ * chunks of hotLimit/2, keeping the cheaper node for states that are on the heap too. Spilled nodes are not in the
+ * index, so the list may return a state that was already returned; the search skips it.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class OpenList {
+
+	private ArrayList<ArrayList<ArrayList<Node>>> buckets = new ArrayList<ArrayList<ArrayList<Node>>>();
+	private int[] counts = new int[16]; //nodes in each f bucket, replaced ones included
+	private int[] minH = new int[16]; //lowest h bucket that may hold nodes, for each f bucket
+	private HashMap<State, Node> index = new HashMap<State, Node>();
+	private int minBucket = 0;
+	private SpillStore spill; //null unless nodes are spilled to disk
+	private int hotLimit;
+	private ArrayList<SegmentFile> spilled = new ArrayList<SegmentFile>(); //spilled nodes by f, or null
+	private long spilledCount;
+	private int minSpilled = Integer.MAX_VALUE; //lowest f with spilled nodes
+
+	public OpenList() {
+	}
+
+	/**
+	 * creates a list that keeps at most hotLimit nodes on the heap and spills the others
+	 * @param spill
+	 * @param hotLimit
+	 */
+	public OpenList(SpillStore spill, int hotLimit) {
+		this.spill = spill;
+		this.hotLimit = Math.max(2, hotLimit);
+	}
+
+	/**
+	 * adds a node by its f and h values. If the list already holds a node for the same state,
+	 * that node is replaced.
+	 * @param n
+	 */
+	public void add(Node n) {
+		while (buckets.size() <= n.f)
+			buckets.add(new ArrayList<ArrayList<Node>>());
+		if (counts.length <= n.f) {
+			counts = Arrays.copyOf(counts, Math.max(counts.length*2, n.f+1));
+			minH = Arrays.copyOf(minH, counts.length);
+		}
+		ArrayList<ArrayList<Node>> bucket = buckets.get(n.f);
+		while (bucket.size() <= n.h)
+			bucket.add(new ArrayList<Node>());
+		bucket.get(n.h).add(n);
+		if (counts[n.f]++ == 0 || n.h < minH[n.f])
+			minH[n.f] = n.h;
+		index.put(n.state, n);
+		if (n.f < minBucket)
+			minBucket = n.f;
+		if (spill != null && index.size() > hotLimit)
+			spillBuckets();
+	}
+
+	/**
+	 * removes and returns the node with the lowest f, breaking ties by the lowest h.
+	 * Nodes with the same f and h are returned last-in first-out.
+	 * @return
+	 */
+	public Node poll() {
+		while (!index.isEmpty() || spilledCount > 0) {
+			if (spilledCount > 0 && (index.isEmpty() || minSpilled < lowestBucket() ||
+					minSpilled == lowestBucket() && index.size() <= hotLimit/2)) {
+				pageIn();
+				continue;
+			}
+			if (counts[minBucket] == 0) {
+				minBucket++;
+				continue;
+			}
+			ArrayList<Node> bucket = buckets.get(minBucket).get(minH[minBucket]);
+			if (bucket.isEmpty()) {
+				minH[minBucket]++;
+				continue;
+			}
+			Node n = bucket.remove(bucket.size()-1);
+			counts[minBucket]--;
+			if (index.get(n.state) == n) { //skip nodes that were replaced
+				index.remove(n.state);
+				return n;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * returns the lowest f with nodes on the heap; there must be one
+	 */
+	private int lowestBucket() {
+		while (counts[minBucket] == 0)
+			minBucket++;
+		return minBucket;
+	}
+
+	/**
+	 * writes the buckets with the highest f to disk until a quarter of the hot limit is free.
+	 * The lowest bucket stays, and so do the buckets that are reached before the lowest spilled
+	 * nodes; a heuristic that is not consistent can add nodes below them.
+	 */
+	private void spillBuckets() {
+		int lowest = spilledCount > 0 ? Math.max(lowestBucket(), minSpilled) : lowestBucket();
+		for (int f = buckets.size()-1; f > lowest && index.size() > hotLimit - hotLimit/4; f--) {
+			if (counts[f] == 0)
+				continue;
+			while (spilled.size() <= f)
+				spilled.add(null);
+			if (spilled.get(f) == null)
+				spilled.set(f, spill.newFile("open" + f));
+			SegmentFile file = spilled.get(f);
+			for (ArrayList<Node> list : buckets.get(f)) {
+				for (Node n : list) {
+					if (index.get(n.state) == n) {
+						index.remove(n.state);
+						spill.write(file, n);
+						spilledCount++;
+					}
+				}
+			}
+			buckets.set(f, new ArrayList<ArrayList<Node>>());
+			counts[f] = 0;
+			minSpilled = Math.min(minSpilled, f);
+		}
+	}
+
+	/**
+	 * reads the last written chunk of the spilled nodes with the lowest f back onto the heap
+	 */
+	private void pageIn() {
+		int f = minSpilled;
+		SegmentFile file = spilled.get(f);
+		long end = file.size();
+		long start = Math.max(0, end - hotLimit/2);
+		for (long i = start; i < end; i++) {
+			Node n = spill.read(file, i, f);
+			Node old = index.get(n.state);
+			if (old == null || n.cost < old.cost)
+				add(n);
+		}
+		file.truncate(start);
+		spilledCount -= end - start;
+		if (start == 0) {
+			minSpilled = Integer.MAX_VALUE;
+			for (int g = f+1; g < spilled.size(); g++) {
+				if (spilled.get(g) != null && spilled.get(g).size() > 0) {
+					minSpilled = g;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * returns the node on the heap for the given state, or null
+	 * @param s
+	 * @return
+	 */
+	public Node get(State s) {
+		return index.get(s);
+	}
+
+	public boolean contains(State s) {
+		return index.containsKey(s);
+	}
+
+	/**
+	 * returns the nodes on the heap in the order in which they were added to their buckets, so
+	 * that adding them to an empty list in that order gives the same list. Spilled nodes are not
+	 * included.
+	 * @return
+	 */
+	public ArrayList<Node> nodes() {
+		ArrayList<Node> nodes = new ArrayList<Node>(index.size());
+		for (ArrayList<ArrayList<Node>> bucket : buckets)
+			for (ArrayList<Node> list : bucket)
+				for (Node n : list)
+					if (index.get(n.state) == n)
+						nodes.add(n);
+		return nodes;
+	}
+
+	public long size() {
+		return (index.size() + spilledCount);
+	}
+
+	public boolean isEmpty() {
+		return index.isEmpty() && spilledCount == 0;
+	}
+
+}
@@ -1,31 +1,231 @@
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 
 /**
  * Problem class stores the coordinates for walls and goals, and implements goalTest and deadlockTest
  * to check whether the boxes are in the goal positions or state is in a deadlock state.
  * Problem class also implements actions function, which returns valid action for a player
+ * <p>
+ * Floor cells (every non-wall cell the player or a box can occupy) are numbered in row-major
+ * order, and states refer to cells by that number. neighbor[cell*4+dir] gives the adjacent
+ * floor cell in direction dir (up, right, down, left), or -1 if that side is blocked.
  * @author Hyun Seung Hong (hh2473)
  *
  */
 public class Problem {
 
+	/**
+	 * the rules that prove a state is a deadlock: a box on a dead square, frozen boxes off their
+	 * goals, a learned pattern, a corral that can never be opened, or a box the heuristic cannot
+	 * assign to any goal
+	 */
+	public enum Deadlock {
+		DEAD_SQUARE, FREEZE, PATTERN, CORRAL, UNREACHABLE
+	}
+
+	//directions in the order used by actions() and the neighbor table
+	static final String[] ACTIONS = {"u", "r", "d", "l"};
+	static final int[] DROW = {-1, 0, 1, 0};
+	static final int[] DCOL = {0, 1, 0, -1};
+	private static final long ZOBRIST_SEED = 4701;
+	static final int UNREACHABLE = 1000000; //push distance of a cell that cannot reach the goal
+
 	State initialState;
 	HashSet<Coordinate> walls;
 	HashSet<Coordinate> goals;
-	HashMap<Coordinate, Coordinate> blocked;
-	
+
+	int rows;
+	int cols;
+	int numCells;
+	int[] cellRow; //row of each floor cell
+	int[] cellCol; //column of each floor cell
+	int[] cellIndex; //floor cell at row*cols+col, or -1
+	int[] neighbor;
+	int[] goalCells;
+	long[] goalBits;
+	boolean[] deadSquare; //cells from which a box can never be pushed to a goal
+	int[] minPushDistance; //pushes from each cell to the nearest goal it can reach
+	private int[] pushDistance; //pushes from each cell to each goal, pushDistance[goal*numCells + cell]
+	DeadlockDatabase deadlocks; //box arrangements proven to be deadlocks
+	long levelKey; //identifies the walls, floor and goals of the level
+	//Zobrist keys, zobrist[cell*4 + k] for k = box key, box key2, player key, player key2
+	private long[] zobrist;
+
 	/**
-	 * receives initial state, walls, and goals from the SokobanSolver class
+	 * receives walls, boxes, player and goals from the SokobanSolver class, numbers the floor cells
+	 * and builds the initial state
 	 * @param walls
-	 * @param initialState
+	 * @param boxes
+	 * @param player
 	 * @param goals
 	 */
-	public Problem(HashSet<Coordinate> walls, State initialState, HashSet<Coordinate> goals) {
-		this.initialState = initialState;
+	public Problem(HashSet<Coordinate> walls, HashSet<Coordinate> boxes, Coordinate player,
+			HashSet<Coordinate> goals) {
 		this.walls = walls;
 		this.goals = goals;
+
+		for (Coordinate c : walls) {
+			rows = Math.max(rows, c.row+1);
+			cols = Math.max(cols, c.col+1);
+		}
+		boolean[] wallGrid = new boolean[rows*cols];
+		boolean[] goalGrid = new boolean[rows*cols];
+		for (Coordinate c : walls)
+			wallGrid[c.row*cols + c.col] = true;
+		for (Coordinate c : goals)
+			if (inside(c.row, c.col))
+				goalGrid[c.row*cols + c.col] = true;
+
+		//flood fill from the player, boxes and goals to find the floor cells
+		boolean[] floor = new boolean[rows*cols];
+		int[] queue = new int[rows*cols];
+		int tail = 0;
+		ArrayList<Coordinate> seeds = new ArrayList<Coordinate>();
+		seeds.add(player);
+		seeds.addAll(boxes);
+		seeds.addAll(goals);
+		for (Coordinate c : seeds) {
+			if (inside(c.row, c.col) && !wallGrid[c.row*cols + c.col] && !floor[c.row*cols + c.col]) {
+				floor[c.row*cols + c.col] = true;
+				queue[tail++] = c.row*cols + c.col;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			int row = queue[head] / cols;
+			int col = queue[head] % cols;
+			for (int d = 0; d < 4; d++) {
+				int r = row + DROW[d];
+				int c = col + DCOL[d];
+				if (inside(r, c) && !wallGrid[r*cols + c] && !floor[r*cols + c]) {
+					floor[r*cols + c] = true;
+					queue[tail++] = r*cols + c;
+				}
+			}
+		}
+
+		//number the floor cells in row-major order
+		cellIndex = new int[rows*cols];
+		numCells = 0;
+		for (int i = 0; i < rows*cols; i++)
+			cellIndex[i] = floor[i] ? numCells++ : -1;
+		cellRow = new int[numCells];
+		cellCol = new int[numCells];
+		neighbor = new int[numCells*4];
+		for (int i = 0; i < rows*cols; i++) {
+			int cell = cellIndex[i];
+			if (cell < 0)
+				continue;
+			cellRow[cell] = i / cols;
+			cellCol[cell] = i % cols;
+			for (int d = 0; d < 4; d++)
+				neighbor[cell*4 + d] = cellAt(cellRow[cell] + DROW[d], cellCol[cell] + DCOL[d]);
+		}
+
+		goalBits = new long[words()];
+		ArrayList<Integer> goalList = new ArrayList<Integer>();
+		for (int cell = 0; cell < numCells; cell++) {
+			if (goalGrid[cellRow[cell]*cols + cellCol[cell]]) {
+				goalBits[cell >>> 6] |= 1L << cell;
+				goalList.add(cell);
+			}
+		}
+		goalCells = new int[goalList.size()];
+		for (int i = 0; i < goalCells.length; i++)
+			goalCells[i] = goalList.get(i);
+
+		findPushDistances();
+
+		levelKey = 1469598103934665603L; //FNV-1a over the size and the floor and goal cells
+		int[] layout = new int[rows*cols + 2];
+		layout[0] = rows;
+		layout[1] = cols;
+		for (int i = 0; i < rows*cols; i++)
+			layout[i+2] = cellIndex[i] < 0 ? 0 : (goalGrid[i] ? 2 : 1);
+		for (int value : layout)
+			levelKey = (levelKey ^ value) * 1099511628211L;
+		deadlocks = new DeadlockDatabase(levelKey, numCells);
+
+		//fixed seed so that runs are reproducible
+		Random random = new Random(ZOBRIST_SEED);
+		zobrist = new long[numCells*4];
+		for (int i = 0; i < zobrist.length; i++)
+			zobrist[i] = random.nextLong();
+
+		long[] boxBits = new long[words()];
+		for (Coordinate b : boxes) {
+			int cell = cellAt(b.row, b.col);
+			if (cell >= 0)
+				boxBits[cell >>> 6] |= 1L << cell;
+		}
+		this.initialState = createState(boxBits, cellAt(player.row, player.col));
+	}
+
+	/**
+	 * creates a state and computes its Zobrist keys from scratch
+	 * @param boxes
+	 * @param player
+	 * @return
+	 */
+	public State createState(long[] boxes, int player) {
+		long key = zobrist[player*4 + 2];
+		long key2 = zobrist[player*4 + 3];
+		for (int i = 0; i < boxes.length; i++) {
+			for (long word = boxes[i]; word != 0; word &= word - 1) {
+				int cell = (i << 6) + Long.numberOfTrailingZeros(word);
+				key ^= zobrist[cell*4];
+				key2 ^= zobrist[cell*4 + 1];
+			}
+		}
+		return new State(boxes, player, key, key2);
+	}
+
+	/**
+	 * creates the state reached from s when the player moves to newPlayer and, if box is not -1,
+	 * the box at box moves to newBox. boxes must already hold the new box positions.
+	 * The Zobrist keys are updated from those of s in constant time.
+	 * @param s
+	 * @param boxes
+	 * @param newPlayer
+	 * @param box
+	 * @param newBox
+	 * @return
+	 */
+	public State move(State s, long[] boxes, int newPlayer, int box, int newBox) {
+		long key = s.key ^ zobrist[s.player*4 + 2] ^ zobrist[newPlayer*4 + 2];
+		long key2 = s.key2 ^ zobrist[s.player*4 + 3] ^ zobrist[newPlayer*4 + 3];
+		if (box >= 0) {
+			key ^= zobrist[box*4] ^ zobrist[newBox*4];
+			key2 ^= zobrist[box*4 + 1] ^ zobrist[newBox*4 + 1];
+		}
+		return new State(boxes, newPlayer, key, key2);
+	}
+
+	/**
+	 * number of long words in a bitboard over the floor cells
+	 */
+	int words() {
+		return (numCells + 63) >>> 6;
+	}
+
+	/**
+	 * returns the floor cell at the given row and column, or -1 if it is not a floor cell
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	int cellAt(int row, int col) {
+		if (!inside(row, col))
+			return -1;
+		return cellIndex[row*cols + col];
+	}
+
+	/**
+	 * checks whether the given floor cell is a goal
+	 */
+	boolean isGoal(int cell) {
+		return (goalBits[cell >>> 6] & (1L << cell)) != 0;
 	}
 
 	/**
@@ -33,108 +233,431 @@ public class Problem {
 	 * returns true if goal is found, and returns false otherwise
 	 */
 	public boolean goalTest(State state) {
-		for(Coordinate box : state.boxes)
-			if (!goals.contains(box))
+		for (int i = 0; i < goalBits.length; i++)
+			if ((state.boxes[i] & ~goalBits[i]) != 0)
 				return false;
 		return true;
 	}
-	
+
+	/**
+	 * Level analysis run once by the constructor. For every goal, a box is pulled away from it in
+	 * every direction where the player has room to stand; the breadth-first distance of a cell is
+	 * the least number of pushes that moves a box from that cell to the goal when no other box is
+	 * in the way. Cells that cannot reach any goal are dead squares, which covers corners, walls
+	 * without goals and every other place a single box can never leave.
+	 */
+	private void findPushDistances() {
+		pushDistance = new int[goalCells.length * numCells];
+		minPushDistance = new int[numCells];
+		deadSquare = new boolean[numCells];
+		Arrays.fill(pushDistance, UNREACHABLE);
+		Arrays.fill(minPushDistance, UNREACHABLE);
+		int[] queue = new int[numCells];
+		for (int g = 0; g < goalCells.length; g++) {
+			int offset = g * numCells;
+			int tail = 0;
+			pushDistance[offset + goalCells[g]] = 0;
+			queue[tail++] = goalCells[g];
+			for (int head = 0; head < tail; head++) {
+				int box = queue[head];
+				for (int d = 0; d < 4; d++) {
+					//player stands at next and steps back to behind, pulling the box onto next
+					int next = neighbor[box*4 + d];
+					if (next < 0 || pushDistance[offset + next] != UNREACHABLE)
+						continue;
+					int behind = neighbor[next*4 + d];
+					if (behind >= 0) {
+						pushDistance[offset + next] = pushDistance[offset + box] + 1;
+						queue[tail++] = next;
+					}
+				}
+			}
+			for (int cell = 0; cell < numCells; cell++)
+				minPushDistance[cell] = Math.min(minPushDistance[cell], pushDistance[offset + cell]);
+		}
+		for (int cell = 0; cell < numCells; cell++)
+			deadSquare[cell] = minPushDistance[cell] == UNREACHABLE;
+	}
+
 	/**
-	 * simple check to see if any of the boxes are in a deadlock state:
-	 *  #  or  #####  or  ##
-	 * #$      #X$X#      $$
-	 * where X represents anything but a goal
+	 * least number of pushes that moves a box from the cell to the goal with the given index,
+	 * or UNREACHABLE
+	 * @param goal index into goalCells
+	 * @param cell
+	 * @return
+	 */
+	int pushDistance(int goal, int cell) {
+		return pushDistance[goal * numCells + cell];
+	}
+
+	/**
+	 * checks whether any box of the state is on a dead square or the state matches a learned pattern
 	 * @param state
 	 * @return
 	 */
 	public boolean deadlockTest(State state) {
-		for (Coordinate box : state.boxes) {
-			int row = box.row;
-			int col = box.col;
-			if (!setContains(goals, row, col)) {
-				if (setContains(walls, row-1, col)&&setContains(walls, row, col-1))
-					return true; //top & left
-				if (setContains(walls, row-1, col)&&setContains(walls, row, col+1))
-					return true; //top & right
-				if (setContains(walls, row+1, col)&&setContains(walls, row, col-1))
-					return true; //bottom & left
-				if (setContains(walls, row+1, col)&&setContains(walls, row, col+1))
-					return true; //bottom & right
-
-				if (setContains(walls, row-1, col-1)&&setContains(walls, row-1, col)&&
-						setContains(walls, row-1, col+1)&&setContains(walls, row, col-2)&&
-						setContains(walls, row, col+2)&&(!setContains(goals, row, col-1))&&
-								!setContains(goals, row, col+1))
-					return true; //top & sides
-				if (setContains(walls, row+1, col-1)&&setContains(walls, row+1, col)&&
-						setContains(walls, row+1, col+1)&&setContains(walls, row, col-2)&&
-						setContains(walls, row, col+2)&&(!setContains(goals, row, col-1))&&
-								(!setContains(goals, row, col+1)))
-					return true; //bottom & sides
-				if (setContains(walls, row-1, col-1)&&setContains(walls, row, col-1)&&
-						setContains(walls, row+1, col-1)&&setContains(walls, row-2, col)&&
-						setContains(walls, row+2, col)&&(!setContains(goals, row-1, col))&&
-								(!setContains(goals, row+1, col)))
-					return true; //left & vertical
-				if (setContains(walls, row-1, col+1)&&setContains(walls, row, col+1)&&
-						setContains(walls, row+1, col+1)&&setContains(walls, row-2, col)&&
-						setContains(walls, row+2, col)&&(!setContains(goals, row-1, col))&&
-								(!setContains(goals, row+1, col)))
-					return true; //right & top/bottom
-			}
-		}
-		return false;
+		return deadlockRule(state) != null;
+	}
+
+	/**
+	 * checks whether the push that led to the state moved its box onto a dead square, froze it
+	 * together with its neighbours, or completed a learned deadlock pattern that contains it.
+	 * The other boxes did not move, so they were already checked for the parent state.
+	 * @param state
+	 * @param push encoded push (box*4+dir)
+	 * @return
+	 */
+	public boolean deadlockTest(State state, int push) {
+		return deadlockRule(state, push) != null;
+	}
+
+	/**
+	 * same as deadlockTest, but returns the rule that found the deadlock, or null
+	 * @param state
+	 * @return
+	 */
+	public Deadlock deadlockRule(State state) {
+		for (int b = state.nextBox(0); b >= 0; b = state.nextBox(b+1))
+			if (deadSquare[b])
+				return Deadlock.DEAD_SQUARE;
+		return deadlocks.matches(state) ? Deadlock.PATTERN : null;
+	}
+
+	/**
+	 * same as deadlockTest for a push, but returns the rule that found the deadlock, or null
+	 * @param state
+	 * @param push encoded push (box*4+dir)
+	 * @return
+	 */
+	public Deadlock deadlockRule(State state, int push) {
+		int box = neighbor[push];
+		if (deadSquare[box])
+			return Deadlock.DEAD_SQUARE;
+		if (freezeDeadlock(state, box))
+			return Deadlock.FREEZE;
+		return deadlocks.matches(state, box) ? Deadlock.PATTERN : null;
+	}
+
+	/**
+	 * freeze deadlock check for a box that was just pushed. A box is frozen when it is blocked both
+	 * horizontally and vertically; it is blocked along an axis by a wall on either side, by dead
+	 * squares on both sides, or by a neighbouring box that is itself frozen. Boxes that are being
+	 * checked count as walls, so boxes blocking each other are found without looping. The state is
+	 * a deadlock when the box is frozen and it or any box frozen with it is not on a goal.
+	 * @param state
+	 * @param box
+	 * @return
+	 */
+	public boolean freezeDeadlock(State state, int box) {
+		boolean[] offGoal = new boolean[1];
+		return frozen(state, box, new long[state.boxes.length], offGoal) && offGoal[0];
+	}
+
+	private boolean frozen(State state, int box, long[] asWall, boolean[] offGoal) {
+		asWall[box >>> 6] |= 1L << box;
+		boolean frozen = blocked(state, box, 1, asWall, offGoal) && blocked(state, box, 0, asWall, offGoal);
+		if (!frozen)
+			asWall[box >>> 6] &= ~(1L << box);
+		else if (!isGoal(box))
+			offGoal[0] = true;
+		return frozen;
+	}
+
+	/**
+	 * checks whether a box is blocked along the axis of dir (0 for vertical, 1 for horizontal)
+	 */
+	private boolean blocked(State state, int box, int dir, long[] asWall, boolean[] offGoal) {
+		int side = neighbor[box*4 + dir];
+		int other = neighbor[box*4 + dir + 2];
+		if (side < 0 || other < 0 || hasBit(asWall, side) || hasBit(asWall, other))
+			return true;
+		if (deadSquare[side] && deadSquare[other])
+			return true;
+		return (state.hasBox(side) && frozen(state, side, asWall, offGoal)) ||
+				(state.hasBox(other) && frozen(state, other, asWall, offGoal));
 	}
 
 	/**
 	 * checks the available actions for the player
 	 * @param state
-	 * @return arraylist of strings (u d l r)
+	 * @return arraylist of strings (u r d l)
 	 */
 	public ArrayList<String> actions(State state) {
-		ArrayList<String> actionList = new ArrayList<String>();
-		int row = state.player.row;
-		int col = state.player.col;
-		HashSet<Coordinate> boxes = state.boxes;
-		
+		ArrayList<String> actionList = new ArrayList<String>(4);
+		int player = state.player;
+
 		//checking if moving up, right, down, left is valid
 		//for each, check if next player move is a wall
 		//if next move has a box, check next box move does not overlap with wall or another box
-		Coordinate newPlayer = new Coordinate(row-1,col);
-		Coordinate newBox = new Coordinate(row-2, col);
-		if (!walls.contains(newPlayer))
-			if (boxes.contains(newPlayer)&&(boxes.contains(newBox)||walls.contains(newBox)))
-				;
-			else
-				actionList.add("u");
-		newPlayer = new Coordinate(row,col+1);
-		newBox = new Coordinate(row, col+2);
-		if (!walls.contains(newPlayer))
-			if (boxes.contains(newPlayer)&&(boxes.contains(newBox)||walls.contains(newBox)))
-				;
-			else
-				actionList.add("r");
-		newPlayer = new Coordinate(row+1,col);
-		newBox = new Coordinate(row+2, col);
-		if (!walls.contains(newPlayer))
-			if (boxes.contains(newPlayer)&&(boxes.contains(newBox)||walls.contains(newBox)))
-				;
-			else
-				actionList.add("d");
-		newPlayer = new Coordinate(row,col-1);
-		newBox = new Coordinate(row, col-2);
-		if (!walls.contains(newPlayer))
-			if (boxes.contains(newPlayer)&&(boxes.contains(newBox)||walls.contains(newBox)))
-				;
-			else
-				actionList.add("l");
+		for (int d = 0; d < 4; d++) {
+			int newPlayer = neighbor[player*4 + d];
+			if (newPlayer < 0)
+				continue;
+			if (state.hasBox(newPlayer)) {
+				int newBox = neighbor[newPlayer*4 + d];
+				if (newBox < 0 || state.hasBox(newBox))
+					continue;
+			}
+			actionList.add(ACTIONS[d]);
+		}
 		return actionList;
 	}
 
-	private boolean setContains(HashSet<Coordinate> set, int row, int col) {
-		if (set.contains(new Coordinate(row, col)))
-			return true;
-		return false;
+	/**
+	 * checks the available box pushes for the player. A push is encoded as box*4+dir, where box
+	 * is the floor cell of the pushed box and dir the direction it is pushed in. A push is legal
+	 * when the player can walk to the cell behind the box and the cell in front of it is free.
+	 * @param state
+	 * @return array of encoded pushes
+	 */
+	public int[] pushes(State state) {
+		return pushes(state, reachable(state.boxes, state.player));
+	}
+
+	/**
+	 * same as pushes(state), with the cells the player can walk to already computed
+	 * @param state
+	 * @param reach
+	 * @return
+	 */
+	public int[] pushes(State state, long[] reach) {
+		int[] pushList = new int[numCells*4];
+		int size = 0;
+		for (int b = state.nextBox(0); b >= 0; b = state.nextBox(b+1)) {
+			for (int d = 0; d < 4; d++) {
+				int behind = neighbor[b*4 + ((d+2) & 3)];
+				int newBox = neighbor[b*4 + d];
+				if (behind >= 0 && newBox >= 0 && hasBit(reach, behind) && !state.hasBox(newBox))
+					pushList[size++] = b*4 + d;
+			}
+		}
+		return Arrays.copyOf(pushList, size);
+	}
+
+	/**
+	 * applies an encoded push to the state. The player of the returned state is normalized to the
+	 * top-left cell of the region it can walk to, so states that only differ by where the player
+	 * stands inside that region are equal.
+	 * @param state
+	 * @param push
+	 * @return
+	 */
+	public State push(State state, int push) {
+		int box = push >>> 2;
+		int newBox = neighbor[push];
+		long[] boxes = state.boxes.clone();
+		boxes[box >>> 6] &= ~(1L << box);
+		boxes[newBox >>> 6] |= 1L << newBox;
+		return move(state, boxes, topLeft(boxes, box), box, newBox);
+	}
+
+	/**
+	 * returns the goal states of a backward search: all boxes on goals, with the player in each of
+	 * the regions the goals leave free, normalized like the states of a push-level search. When
+	 * there are more goals than boxes, every choice of goals for the boxes is a goal state; when
+	 * there are fewer, there is none.
+	 * @return
+	 */
+	public ArrayList<State> goalStates() {
+		ArrayList<State> states = new ArrayList<State>();
+		int boxCount = 0;
+		for (int box = initialState.nextBox(0); box >= 0; box = initialState.nextBox(box+1))
+			boxCount++;
+		if (boxCount <= goalCells.length)
+			addGoalStates(states, new long[words()], 0, boxCount);
+		return states;
+	}
+
+	/**
+	 * puts the remaining boxes on goals from goalCells[from] on in every possible way, and adds
+	 * the goal states of each arrangement
+	 */
+	private void addGoalStates(ArrayList<State> states, long[] boxes, int from, int remaining) {
+		if (remaining == 0) {
+			long[] arrangement = boxes.clone();
+			long[] seen = boxes.clone();
+			for (int cell = 0; cell < numCells; cell++) {
+				if (hasBit(seen, cell))
+					continue;
+				long[] reach = reachable(arrangement, cell);
+				for (int i = 0; i < seen.length; i++)
+					seen[i] |= reach[i];
+				states.add(createState(arrangement, cell)); //cell is the lowest cell of its region
+			}
+			return;
+		}
+		for (int g = from; g <= goalCells.length - remaining; g++) {
+			int goal = goalCells[g];
+			boxes[goal >>> 6] |= 1L << goal;
+			addGoalStates(states, boxes, g+1, remaining-1);
+			boxes[goal >>> 6] &= ~(1L << goal);
+		}
+	}
+
+	/**
+	 * checks the available box pulls for the player, the reverse of pushes. A pull is encoded as
+	 * box*4+dir, where dir points from the box to the cell the player stands on; the player steps
+	 * one cell further in that direction and the box follows it.
+	 * @param state
+	 * @param reach cells the player can walk to
+	 * @return array of encoded pulls
+	 */
+	public int[] pulls(State state, long[] reach) {
+		int[] pullList = new int[numCells*4];
+		int size = 0;
+		for (int b = state.nextBox(0); b >= 0; b = state.nextBox(b+1)) {
+			for (int d = 0; d < 4; d++) {
+				int newBox = neighbor[b*4 + d];
+				if (newBox < 0 || !hasBit(reach, newBox))
+					continue;
+				int newPlayer = neighbor[newBox*4 + d];
+				if (newPlayer >= 0 && !state.hasBox(newPlayer))
+					pullList[size++] = b*4 + d;
+			}
+		}
+		return Arrays.copyOf(pullList, size);
+	}
+
+	/**
+	 * applies an encoded pull to the state, normalizing the player as push does
+	 * @param state
+	 * @param pull
+	 * @return
+	 */
+	public State pull(State state, int pull) {
+		int box = pull >>> 2;
+		int newBox = neighbor[pull];
+		long[] boxes = state.boxes.clone();
+		boxes[box >>> 6] &= ~(1L << box);
+		boxes[newBox >>> 6] |= 1L << newBox;
+		return move(state, boxes, topLeft(boxes, neighbor[newBox*4 + (pull & 3)]), box, newBox);
+	}
+
+	/**
+	 * returns the push that undoes a pull
+	 * @param pull
+	 * @return
+	 */
+	public int reversePush(int pull) {
+		return neighbor[pull]*4 + (((pull & 3) + 2) & 3);
+	}
+
+	/**
+	 * applies an encoded push to the box words of the state itself instead of a copy, for searches
+	 * that make and unmake moves on a single board. The returned state shares its box words with
+	 * the state passed in, so both only hold until the push is undone with unmakePush.
+	 * @param state
+	 * @param push
+	 * @param normalize move the player to the top-left cell it can walk to, as push does
+	 * @return
+	 */
+	State makePush(State state, int push, boolean normalize) {
+		int box = push >>> 2;
+		int newBox = neighbor[push];
+		long[] boxes = state.boxes;
+		boxes[box >>> 6] &= ~(1L << box);
+		boxes[newBox >>> 6] |= 1L << newBox;
+		return move(state, boxes, normalize ? topLeft(boxes, box) : box, box, newBox);
+	}
+
+	/**
+	 * undoes makePush on the box words
+	 * @param boxes
+	 * @param push
+	 */
+	void unmakePush(long[] boxes, int push) {
+		int box = push >>> 2;
+		int newBox = neighbor[push];
+		boxes[newBox >>> 6] &= ~(1L << newBox);
+		boxes[box >>> 6] |= 1L << box;
+	}
+
+	/**
+	 * returns the state with the player moved to the top-left cell of the region it can walk to
+	 * @param state
+	 * @return
+	 */
+	public State normalize(State state) {
+		int player = topLeft(state.boxes, state.player);
+		if (player == state.player)
+			return state;
+		return move(state, state.boxes, player, -1, -1);
+	}
+
+	/**
+	 * returns the top-left (lowest numbered) cell the player can walk to
+	 */
+	private int topLeft(long[] boxes, int player) {
+		long[] reach = reachable(boxes, player);
+		for (int i = 0; i < reach.length; i++)
+			if (reach[i] != 0)
+				return (i << 6) + Long.numberOfTrailingZeros(reach[i]);
+		return player;
+	}
+
+	/**
+	 * breadth-first search over the floor cells without boxes, starting from the given cell
+	 * @param boxes
+	 * @param from
+	 * @return bitboard of the cells the player can walk to
+	 */
+	public long[] reachable(long[] boxes, int from) {
+		long[] reach = new long[boxes.length];
+		int[] queue = new int[numCells];
+		int tail = 0;
+		reach[from >>> 6] |= 1L << from;
+		queue[tail++] = from;
+		for (int head = 0; head < tail; head++) {
+			int cell = queue[head];
+			for (int d = 0; d < 4; d++) {
+				int next = neighbor[cell*4 + d];
+				if (next >= 0 && !hasBit(boxes, next) && !hasBit(reach, next)) {
+					reach[next >>> 6] |= 1L << next;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return reach;
 	}
-	
+
+	/**
+	 * shortest walk of the player between two cells without moving any box
+	 * @param boxes
+	 * @param from
+	 * @param to
+	 * @return list of moves (u r d l), or null if the player cannot get there
+	 */
+	public ArrayList<String> path(long[] boxes, int from, int to) {
+		int[] parentDir = new int[numCells];
+		Arrays.fill(parentDir, -1);
+		int[] queue = new int[numCells];
+		int tail = 0;
+		parentDir[from] = 4;
+		queue[tail++] = from;
+		for (int head = 0; head < tail && parentDir[to] < 0; head++) {
+			int cell = queue[head];
+			for (int d = 0; d < 4; d++) {
+				int next = neighbor[cell*4 + d];
+				if (next >= 0 && parentDir[next] < 0 && !hasBit(boxes, next)) {
+					parentDir[next] = d;
+					queue[tail++] = next;
+				}
+			}
+		}
+		if (parentDir[to] < 0)
+			return null;
+		ArrayList<String> moves = new ArrayList<String>();
+		for (int cell = to; cell != from; cell = neighbor[cell*4 + ((parentDir[cell]+2) & 3)])
+			moves.add(0, ACTIONS[parentDir[cell]]);
+		return moves;
+	}
+
+	static boolean hasBit(long[] bits, int cell) {
+		return (bits[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	private boolean inside(int row, int col) {
+		return row >= 0 && col >= 0 && row < rows && col < cols;
+	}
+
 }
@@ -1,15 +1,21 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Search class implements breadth-first search, depth-first search, uniform-cost search,
- * greedy search and heuristics search in order to solve the sokoban puzzle
+ * greedy search and heuristics search in order to solve the sokoban puzzle.
+ * A Search object runs one search at a time. Searches on different Search objects can run at the
+ * same time on the same Problem and Heuristics.
  * @author Hyun Seung Hong (hh2473)
  *
  */
@@ -21,56 +27,493 @@ public class Search {
     private static final String UCS = "Uniform-Cost Search";
     private static final String ASTAR = "A* Search";
     private static final String GREEDY = "Greedy Search";
+    private static final String IDA = "IDA* Search";
+    private static final String BIDIRECTIONAL = "Bidirectional Search";
+    private static final String EXTERNAL_BFS = "External-Memory Breadth-First Search";
     
-    private static Heuristics h;
+    private static final String PUSH_LEVEL = " (push-level)";
+    
+    private static final int EXPLORED_CAPACITY = 1 << 16;
+    private static final int FOUND = -1; //returned by idaSearch when it reaches the goal
+    private static final int BATCH_SIZE = 64; //nodes per message between parallel workers
+    private static final int FLUSH_INTERVAL = 32; //expansions between flushes of all outboxes
+    static final int DEFAULT_HOT_NODES = 1 << 20; //nodes a spilling search keeps on the heap
+    static final long DEFAULT_CHECKPOINT_PERIOD = 300000; //ms between checkpoints
+    //layout of the state records of external breadth-first search
+    private static final int RECORD_PARENT = 2; //fingerprint of the parent, two longs
+    private static final int RECORD_MOVE = 4; //player and move code
+    private static final int RECORD_BOXES = 5;
+    private static final int MAX_RUNS = 64; //sorted runs merged at once
+    
+    private Heuristics h;
+    private Heuristics.Workspace scratch; //taken from the pool of h for the running search
+    private boolean pushLevel;
+    private boolean offHeap = false; //keep the explored set in a direct buffer
+    private boolean verify = false; //compare full states when fingerprints match
+    private int corralLimit = CorralPruner.DEFAULT_NODE_LIMIT;
+    private CorralPruner corrals;
+    private long memoryBudget = TranspositionTable.DEFAULT_BUDGET;
+    private int threads = 1;
+    private long timeLimit = 0; //ms per search, 0 for none
+    private long nodeLimit = 0; //generated nodes per search, 0 for none
+    private long deadline;
+    private volatile SearchResult.Status stopReason; //set when a limit stops the search
+    private volatile boolean cancelled = false; //set by cancel, from any thread
+    private SearchResult result; //result of the last search
+    private SearchMetrics metrics = new SearchMetrics();
+    private File spillDir; //directory for the spill files of bfs and prioritySearch, or null
+    private int hotNodes = DEFAULT_HOT_NODES;
+    private SpillStore spill; //spill files of the running search, or null
+    private File checkpointDir; //directory for the checkpoints of bfs and prioritySearch, or null
+    private long checkpointPeriod = DEFAULT_CHECKPOINT_PERIOD;
+    
+    //state of the running IDA* search
+    private TranspositionTable table;
+    private int iteration;
+    private long generated;
+    private long revisited;
+    private Node goal;
+    
+    //state shared by the workers of the running parallel search
+    private ArrayList<ConcurrentLinkedQueue<ArrayList<Node>>> mailboxes;
+    private AtomicLong work; //active workers plus batches sent but not yet received
+    private AtomicInteger incumbent; //cost of the best solution found so far
+    private volatile boolean done;
+    private AtomicLong generatedTotal; //nodes generated by all workers, updated at every flush
 	
 	public Search(Heuristics h) {
-		Search.h = h;
+		this(h, false);
+	}
+	
+	/**
+	 * if pushLevel is true, nodes are box configurations with a normalized player and
+	 * their children are the legal box pushes instead of single player moves
+	 * @param h
+	 * @param pushLevel
+	 */
+	public Search(Heuristics h, boolean pushLevel) {
+		this.h = h;
+		this.pushLevel = pushLevel;
+	}
+	
+	/**
+	 * Sets how the explored set is stored. By default only 64-bit state fingerprints are kept
+	 * on the heap; offHeap moves them to a direct buffer, and verify also keeps the states so
+	 * that two states with the same fingerprint are compared in full.
+	 * @param offHeap
+	 * @param verify
+	 */
+	public void setExploredSet(boolean offHeap, boolean verify) {
+		this.offHeap = offHeap;
+		this.verify = verify;
+	}
+	
+	/**
+	 * Lets breadth-first, uniform-cost, greedy and A* search keep their fringe and explored set
+	 * mostly on disk, so that they can search more states than fit on the heap. At most hotNodes
+	 * fringe nodes stay on the heap; the others are written to memory-mapped files in a new
+	 * directory inside dir, which is deleted when the search ends. A node only keeps the record
+	 * of its parent in a closed log on disk, and the explored set of fingerprints is kept in
+	 * direct buffers, whose size is bounded by -XX:MaxDirectMemorySize rather than by the heap;
+	 * a hash table in a file mapping would be written back to disk page by page. It takes 22 to
+	 * 43 bytes per explored state, and 64 for a moment while it doubles, so 16 GB of direct
+	 * memory holds about 250 million states. Paged-in nodes compute their heuristic from scratch.
+	 * <p>
+	 * externalBfs always works on disk; it uses dir, or the temporary directory when dir is null,
+	 * and sorts hotNodes children at a time in memory.
+	 * @param dir directory for the spill files, or null to keep everything on the heap
+	 * @param hotNodes
+	 */
+	public void setSpill(File dir, int hotNodes) {
+		this.spillDir = dir;
+		this.hotNodes = hotNodes;
+	}
+	
+	/**
+	 * Lets breadth-first, uniform-cost, greedy and A* search save a checkpoint to a file in dir
+	 * every period ms, and when a limit or cancel stops them. A search that finds a checkpoint
+	 * for its level, method, heuristic and push or step level goes on from it, so a run that was
+	 * stopped or killed does not start over. The checkpoint is deleted when the search ends with
+	 * or without a solution. Searches that spill to disk and parallel searches do not save
+	 * checkpoints.
+	 * @param dir directory of the checkpoint files, or null to turn checkpoints off
+	 * @param period
+	 */
+	public void setCheckpoint(File dir, long period) {
+		this.checkpointDir = dir;
+		this.checkpointPeriod = period;
+	}
+	
+	/**
+	 * Sets the node limit of the corral sub-searches used by push-level searches. 0 turns corral
+	 * pruning off.
+	 * @param nodeLimit
+	 */
+	public void setCorralLimit(int nodeLimit) {
+		this.corralLimit = nodeLimit;
+	}
+	
+	/**
+	 * Sets the number of bytes the transposition table of IDA* search may use
+	 * @param bytes
+	 */
+	public void setMemoryBudget(long bytes) {
+		this.memoryBudget = bytes;
+	}
+	
+	/**
+	 * Sets limits for every search. A search that reaches one stops without a solution.
+	 * @param timeLimit milliseconds, 0 for no limit
+	 * @param nodeLimit generated nodes, 0 for no limit
+	 */
+	public void setLimits(long timeLimit, long nodeLimit) {
+		this.timeLimit = timeLimit;
+		this.nodeLimit = nodeLimit;
+	}
+	
+	/**
+	 * Asks the running search to stop. It is safe to call from any thread; the search stops at
+	 * its next check of the limits and returns without a solution. A search started after the
+	 * call stops at once.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * returns the result of the last search, for callers that need the numbers rather than
+	 * the printed solution
+	 * @return
+	 */
+	public SearchResult getResult() {
+		return result;
+	}
+	
+	/**
+	 * returns the live metrics of the running or last search. Set their period and listener
+	 * before the search starts to receive snapshots while it runs.
+	 * @return
+	 */
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets the number of worker threads of parallelSearch
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
 	}
 	
 	/**
 	 * Implementation for breadth-first search.
-	 * Code is based on textbook pseudocode
+	 * Code is based on textbook pseudocode. The spill files, if any, are deleted however the
+	 * search ends.
 	 * @param p
 	 * @return
 	 */
 	public String bfs(Problem p) {
+		try {
+			return breadthFirst(p);
+		} finally {
+			deleteSpill();
+		}
+	}
+	
+	private String breadthFirst(Problem p) {
 		long startTime = System.currentTimeMillis();
-		int totalNode = 1;
-		int redundant = 0;
-		Node node = new Node(p.initialState, null, 0, ""); //node with state=problem.INITIAL-STATE, PATH-COST = 0
+		long totalNode = 1;
+		long redundant = 0;
+		Node node = getRoot(p); //node with state=problem.INITIAL-STATE, PATH-COST = 0
 		if (p.goalTest(node.state)) //if problem.GOAL-TEST(node.state) then return SOLUTION(node)
-			return getSolution(BFS, node, totalNode, 0, 0, 0, System.currentTimeMillis() - startTime);
+			return getSolution(p, BFS, node, totalNode, 0, 0, 0, System.currentTimeMillis() - startTime);
 		
-		Set<State> explored = new HashSet<State>(); //empty set
-		Queue<Node> fringe = new LinkedList<Node>();
-		fringe.add(node);
-		ArrayList<String> actions;
-		Node child;
-		while (!fringe.isEmpty()) {
+		//explored holds the states that were expanded or are on the fringe
+		startSpill(p);
+		FingerprintSet explored = newExplored();
+		NodeQueue fringe = spill != null ? new NodeQueue(spill, hotNodes) : new NodeQueue();
+		Checkpoint checkpoint = newCheckpoint(p, 'b');
+		if (checkpoint != null && checkpoint.read(explored)) {
+			for (Node n : checkpoint.fringe)
+				fringe.add(n);
+			totalNode = checkpoint.totalNode;
+			redundant = checkpoint.redundant;
+			startTime -= checkpoint.elapsed;
+		}
+		else {
+			if (checkpoint != null)
+				explored = newExplored(); //a checkpoint that failed to load may have filled it
+			fringe.add(node);
+			explored.add(node.state);
+		}
+		while (!fringe.isEmpty() && !limitReached(totalNode)) {
+			if (checkpoint != null && checkpoint.due())
+				saveCheckpoint(checkpoint, fringe.nodes(), explored, totalNode, redundant, startTime);
 			node = fringe.poll(); //node <- POP(frontier)
-			//System.out.println("Player at ("+n.state.player.row+","+n.state.player.col+")");
-			explored.add(node.state); //add node.STATE to explored
+			if (spill != null)
+				spill.close(node);
+			metrics.expanded(fringe.size(), explored.size() - fringe.size());
 			
-			actions = p.actions(node.state); //get actions
-			for (int i=0; i<actions.size(); i++) { //for each action in problem.ACTIONS(node.STATE) do
-				child = getChild(p, node, actions.get(i), false); //child <- CHILD-NODE(problem,node,action)
+			//for each action in problem.ACTIONS(node.STATE) do child <- CHILD-NODE(problem,node,action)
+			for (Node child : expand(p, node, false)) {
 				if(child!=null && child.state!=null) {
 					totalNode++;
 					//if child.STATE is not in explored or fringe, then
-					if ((!explored.contains(child.state))&&(!fringe.contains(child))) {
-						String solution = getSolution(BFS, child, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
-						if (p.goalTest(child.state))
-							return solution;
-						if (!p.deadlockTest(child.state)) // check deadlock state
+					if (!explored.contains(child.state)) {
+						if (p.goalTest(child.state)) {
+							endCheckpoint(checkpoint, null, explored, totalNode, redundant, startTime);
+							return getSolution(p, BFS, child, totalNode, redundant, fringe.size(), explored.size() - fringe.size(), System.currentTimeMillis() - startTime);
+						}
+						if (!deadlock(p, child)) { // check deadlock state
+							detach(child);
 							fringe.add(child);
+							explored.add(child.state);
+						}
 					}
 					else
 						redundant++;
 				}
 			}
 		}
-		return getSolution(BFS, null, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
+		endCheckpoint(checkpoint, checkpoint == null ? null : fringe.nodes(), explored, totalNode, redundant, startTime);
+		return getSolution(p, BFS, null, totalNode, redundant, fringe.size(), explored.size() - fringe.size(), System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Implementation for breadth-first search in external memory, for levels whose states do not
+	 * fit in memory. Every layer is a file of state records sorted by fingerprint, which is read
+	 * from start to end when it is expanded. The children are collected in memory, hotNodes at a
+	 * time, and written as sorted runs. Duplicates are removed only when the runs are merged
+	 * (delayed duplicate detection): the merge streams the runs together with a sorted file of
+	 * the fingerprints of all states reached so far, writes the new states to the next layer and
+	 * merges their fingerprints into the next visited file; when there are more than MAX_RUNS
+	 * runs, groups of them are merged first. A push cannot be undone by a single
+	 * move, so a state can come back more than two layers later, and all earlier layers are
+	 * checked rather than the last two. Each record keeps the fingerprint of its parent, and the
+	 * solution is rebuilt with one binary search per layer. The files are kept in a new directory
+	 * inside the spill directory, or the temporary directory, and deleted when the search ends.
+	 * @param p
+	 * @return
+	 */
+	public String externalBfs(Problem p) {
+		long startTime = System.currentTimeMillis();
+		long totalNode = 1;
+		long redundant = 0;
+		Node root = getRoot(p);
+		if (p.goalTest(root.state))
+			return getSolution(p, EXTERNAL_BFS, root, totalNode, 0, 0, 0, System.currentTimeMillis() - startTime);
+		
+		spill = new SpillStore(p, spillDir != null ? spillDir : new File(System.getProperty("java.io.tmpdir")), pushLevel);
+		int recordLongs = RECORD_BOXES + p.initialState.boxes.length;
+		ArrayList<LayerFile> layers = new ArrayList<LayerFile>();
+		ArrayList<LayerFile> runs = new ArrayList<LayerFile>(); //sorted children of the current layer
+		LayerFile layer = new LayerFile(spill.file("layer0"), recordLongs);
+		LayerFile visited = new LayerFile(spill.file("visited0"), 2);
+		layers.add(layer);
+		try {
+			long[] record = encode(root, 0, 0, new long[recordLongs]);
+			LayerFile.Writer w = layer.writer();
+			w.write(record);
+			w.close();
+			w = visited.writer();
+			w.write(record);
+			w.close();
+			long[][] buffer = new long[Math.max(1, hotNodes)][];
+			while (layer.size() > 0) {
+				runs = new ArrayList<LayerFile>();
+				int runCount = 0;
+				int buffered = 0;
+				LayerFile.Reader in = layer.reader();
+				try {
+					while (in.next()) {
+						if (limitReached(totalNode))
+							return getSolution(p, EXTERNAL_BFS, null, totalNode, redundant, layer.size(),
+									visited.size(), System.currentTimeMillis() - startTime);
+						metrics.expanded(layer.size(), visited.size());
+						for (Node child : expand(p, decode(p, in.record, layers.size() - 1), false)) {
+							totalNode++;
+							if (p.goalTest(child.state))
+								return getSolution(p, EXTERNAL_BFS, rebuild(root, layers, in.record, child), totalNode, redundant,
+										layer.size(), visited.size(), System.currentTimeMillis() - startTime);
+							if (deadlock(p, child))
+								continue;
+							if (buffer[buffered] == null)
+								buffer[buffered] = new long[recordLongs];
+							encode(child, in.record[0], in.record[1], buffer[buffered++]);
+							if (buffered == buffer.length) {
+								runs.add(writeRun(buffer, buffered, recordLongs, spill.file("run" + runCount++)));
+								buffered = 0;
+							}
+						}
+					}
+				} finally {
+					in.close();
+				}
+				if (buffered > 0)
+					runs.add(writeRun(buffer, buffered, recordLongs, spill.file("run" + runCount++)));
+				while (runs.size() > MAX_RUNS) {
+					ArrayList<LayerFile> merged = new ArrayList<LayerFile>();
+					for (int i = 0; i < runs.size(); i += MAX_RUNS) {
+						List<LayerFile> group = runs.subList(i, Math.min(runs.size(), i + MAX_RUNS));
+						LayerFile run = new LayerFile(spill.file("run" + runCount++), recordLongs);
+						redundant += merge(group, null, run, null);
+						for (LayerFile f : group)
+							f.delete();
+						merged.add(run);
+					}
+					runs = merged;
+				}
+				layer = new LayerFile(spill.file("layer" + layers.size()), recordLongs);
+				LayerFile seen = new LayerFile(spill.file("visited" + layers.size()), 2);
+				redundant += merge(runs, visited, layer, seen);
+				for (LayerFile run : runs)
+					run.delete();
+				visited.delete();
+				visited = seen;
+				layers.add(layer);
+			}
+			return getSolution(p, EXTERNAL_BFS, null, totalNode, redundant, 0, visited.size(), System.currentTimeMillis() - startTime);
+		} finally { //the files go on every exit: a solution, a limit, a cancel or an error
+			for (LayerFile f : layers)
+				f.delete();
+			for (LayerFile run : runs)
+				run.delete();
+			visited.delete();
+			deleteSpill();
+		}
+	}
+	
+	/**
+	 * writes the record of a node of external breadth-first search
+	 * @param n
+	 * @param parentFp
+	 * @param parentFp2
+	 * @param record
+	 * @return record
+	 */
+	private long[] encode(Node n, long parentFp, long parentFp2, long[] record) {
+		record[0] = n.state.fingerprint();
+		record[1] = n.state.fingerprint2();
+		record[RECORD_PARENT] = parentFp;
+		record[RECORD_PARENT + 1] = parentFp2;
+		record[RECORD_MOVE] = ((long) n.state.player << 32) | (SpillStore.code(n, pushLevel) & 0xffffffffL);
+		System.arraycopy(n.state.boxes, 0, record, RECORD_BOXES, n.state.boxes.length);
+		return record;
+	}
+	
+	/**
+	 * returns a node for a record of external breadth-first search. It has no parent and no move.
+	 * @param p
+	 * @param record
+	 * @param depth
+	 * @return
+	 */
+	private Node decode(Problem p, long[] record, int depth) {
+		return new Node(p.createState(Arrays.copyOfRange(record, RECORD_BOXES, record.length),
+				(int) (record[RECORD_MOVE] >>> 32)), null, depth, "");
+	}
+	
+	/**
+	 * sorts the first size records of the buffer by fingerprint and writes them to a new file
+	 * @return the file
+	 */
+	private LayerFile writeRun(long[][] buffer, int size, int recordLongs, File file) {
+		Arrays.sort(buffer, 0, size, LayerFile.ORDER);
+		LayerFile run = new LayerFile(file, recordLongs);
+		LayerFile.Writer w = run.writer();
+		for (int i = 0; i < size; i++)
+			w.write(buffer[i]);
+		w.close();
+		return run;
+	}
+	
+	/**
+	 * merges the sorted runs of children into the next layer, dropping the states that appear
+	 * in the visited file or more than once in the runs, and writes the visited fingerprints
+	 * together with those of the next layer to a new visited file
+	 * @param runs
+	 * @param visited null to only drop the duplicates among the runs
+	 * @param next
+	 * @param nextVisited null when visited is null
+	 * @return the number of dropped children
+	 */
+	private long merge(List<LayerFile> runs, LayerFile visited, LayerFile next, LayerFile nextVisited) {
+		long duplicates = 0;
+		PriorityQueue<LayerFile.Reader> queue = new PriorityQueue<LayerFile.Reader>(Math.max(1, runs.size()),
+				LayerFile.READER_ORDER);
+		for (LayerFile run : runs) {
+			LayerFile.Reader r = run.reader();
+			if (r.next())
+				queue.add(r);
+			else
+				r.close();
+		}
+		LayerFile.Reader old = visited == null ? null : visited.reader();
+		boolean hasOld = old != null && old.next();
+		LayerFile.Writer out = next.writer();
+		LayerFile.Writer seen = nextVisited == null ? null : nextVisited.writer();
+		long lastFp = 0, lastFp2 = 0;
+		boolean first = true;
+		while (!queue.isEmpty()) {
+			LayerFile.Reader r = queue.poll();
+			long[] child = r.record;
+			if (!first && child[0] == lastFp && child[1] == lastFp2)
+				duplicates++;
+			else {
+				while (hasOld && LayerFile.compare(old.record[0], old.record[1], child[0], child[1]) < 0) {
+					seen.write(old.record);
+					hasOld = old.next();
+				}
+				if (hasOld && old.record[0] == child[0] && old.record[1] == child[1])
+					duplicates++;
+				else {
+					out.write(child);
+					if (seen != null)
+						seen.write(child);
+				}
+				first = false;
+				lastFp = child[0];
+				lastFp2 = child[1];
+			}
+			if (r.next())
+				queue.add(r);
+			else
+				r.close();
+		}
+		if (old != null) {
+			for (; hasOld; hasOld = old.next())
+				seen.write(old.record);
+			old.close();
+			seen.close();
+		}
+		out.close();
+		return duplicates;
+	}
+	
+	/**
+	 * rebuilds the path to a goal found by external breadth-first search, following the parent
+	 * fingerprints back through the layers
+	 * @param root
+	 * @param layers
+	 * @param record record of the parent of the goal, in the last layer
+	 * @param goal
+	 * @return the goal node, whose parents hold the moves
+	 */
+	private Node rebuild(Node root, ArrayList<LayerFile> layers, long[] record, Node goal) {
+		ArrayList<Integer> codes = new ArrayList<Integer>();
+		codes.add(SpillStore.code(goal, pushLevel));
+		long[] r = record.clone();
+		for (int depth = layers.size() - 1; depth > 0; depth--) {
+			codes.add(0, (int) r[RECORD_MOVE]);
+			layers.get(depth - 1).find(r[RECORD_PARENT], r[RECORD_PARENT + 1], r);
+		}
+		Node n = root;
+		for (int code : codes) {
+			n = new Node(null, n, n.cost + 1, "");
+			SpillStore.setMove(n, code, pushLevel);
+		}
+		return n;
 	}
 
 	/**
@@ -81,100 +524,630 @@ public class Search {
 	 */
 	public String dfs(Problem p) {
 		long startTime = System.currentTimeMillis();
-		int totalNode = 1;
-		int redundant = 0;
-		Node node = new Node(p.initialState, null, 0, ""); //node with state=problem.INITIAL-STATE, PATH-COST = 0
+		long totalNode = 1;
+		long redundant = 0;
+		Node node = getRoot(p); //node with state=problem.INITIAL-STATE, PATH-COST = 0
 		if (p.goalTest(node.state)) //if problem.GOAL-TEST(node.state) then return SOLUTION(node)
-			return getSolution(DFS, node, totalNode, 0, 0, 0, System.currentTimeMillis() - startTime);
+			return getSolution(p, DFS, node, totalNode, 0, 0, 0, System.currentTimeMillis() - startTime);
 		
-		Set<State> explored = new HashSet<State>(); //empty set
-		Stack<Node> fringe = new Stack<Node>();
+		//explored holds the states that were expanded or are on the fringe
+		FingerprintSet explored = new FingerprintSet(EXPLORED_CAPACITY, offHeap, verify);
+		ArrayDeque<Node> fringe = new ArrayDeque<Node>();
 		fringe.push(node);
-		while (!fringe.isEmpty()) {
+		explored.add(node.state);
+		while (!fringe.isEmpty() && !limitReached(totalNode)) {
 			node = fringe.pop(); //node <- POP(frontier)
-			//System.out.println("Player at ("+n.state.player.row+","+n.state.player.col+")");
-			explored.add(node.state); //add node.STATE to explored
-			ArrayList<String> actions = p.actions(node.state); //get actions
-			for (int i=0; i<actions.size(); i++) { //for each action in problem.ACTIONS(node.STATE) do
-				Node child = getChild(p, node, actions.get(i), false); //child <- CHILD-NODE(problem,node,action)
+			metrics.expanded(fringe.size(), explored.size() - fringe.size());
+			//for each action in problem.ACTIONS(node.STATE) do child <- CHILD-NODE(problem,node,action)
+			for (Node child : expand(p, node, false)) {
 				if(child!=null&&child.state!=null) {
 					totalNode++;
 					//if child.STATE is not in explored or fringe, then
-					if ((!explored.contains(child.state))&&(!fringe.contains(child))) {
-						String solution = getSolution(DFS, child, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
+					if (!explored.contains(child.state)) {
 						if (p.goalTest(child.state))
-							return solution;
-						if (!p.deadlockTest(child.state))
+							return getSolution(p, DFS, child, totalNode, redundant, fringe.size(), explored.size() - fringe.size(), System.currentTimeMillis() - startTime);
+						if (!deadlock(p, child)) {
 							fringe.push(child);
+							explored.add(child.state);
+						}
 					}
 					else
 						redundant++;
 				}
 			}
 		}
-		return getSolution(DFS, null, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
+		return getSolution(p, DFS, null, totalNode, redundant, fringe.size(), explored.size() - fringe.size(), System.currentTimeMillis() - startTime);
 	}
 
 	/**
 	 * Implementation for uniform-cost search, greedy search, and A* search.
-	 * These search method uses same code, except for sorting for priorityQueue.
+	 * These search method uses same code, except for the priority of the nodes on the fringe.
+	 * The fringe is an OpenList, so checking whether a state is on the fringe and replacing
+	 * a fringe node with a cheaper one take constant time. The spill files, if any, are deleted
+	 * however the search ends.
 	 * @param p
 	 * @param choice
 	 * @return
 	 */
 	public String prioritySearch(Problem p, char choice) {
+		try {
+			return bestFirst(p, choice);
+		} finally {
+			deleteSpill();
+		}
+	}
+	
+	private String bestFirst(Problem p, char choice) {
 		String method = UCS;
 		boolean isUCS = true;
 		long startTime = System.currentTimeMillis();
-		int totalNode = 1;
-		int redundant = 0;
-		Node initial = new Node(p.initialState, null, 0, "");
-		Set<State> explored = new HashSet<State>();
+		long totalNode = 1;
+		long redundant = 0;
+		Node initial = getRoot(p);
+		startSpill(p);
+		FingerprintSet explored = newExplored();
 		//check search method to see if greedy or A* is chosen
-		Queue<Node> fringe = new PriorityQueue<Node>(11, costComparator);
 		if (choice == 'g') {
-			fringe = new PriorityQueue<Node>(11, greedyComparator);
 			method = GREEDY;
 			isUCS = false;
 		}
 		if(choice == 'a') {
-			fringe = new PriorityQueue<Node>(11, astarComparator);
 			method = ASTAR;
 			isUCS = false;
 		}
-		fringe.add(initial);
-		while (!fringe.isEmpty()) {
-			Node n = fringe.remove();
-			if (p.goalTest(n.state))
-				return getSolution(method, n, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
-			if (!p.deadlockTest(n.state)) { //check for deadlock
+		OpenList fringe = spill != null ? new OpenList(spill, hotNodes) : new OpenList();
+		Checkpoint checkpoint = newCheckpoint(p, choice);
+		if (checkpoint != null && checkpoint.read(explored)) {
+			for (Node n : checkpoint.fringe)
+				fringe.add(n);
+			totalNode = checkpoint.totalNode;
+			redundant = checkpoint.redundant;
+			startTime -= checkpoint.elapsed;
+		}
+		else {
+			if (checkpoint != null)
+				explored = newExplored(); //a checkpoint that failed to load may have filled it
+			evaluate(initial, choice);
+			fringe.add(initial);
+		}
+		while (!fringe.isEmpty() && !limitReached(totalNode)) {
+			if (checkpoint != null && checkpoint.due())
+				saveCheckpoint(checkpoint, fringe.nodes(), explored, totalNode, redundant, startTime);
+			Node n = fringe.poll();
+			if (spill != null && explored.contains(n.state)) { //a spilled copy of an expanded state
+				redundant++;
+				continue;
+			}
+			if (p.goalTest(n.state)) {
+				endCheckpoint(checkpoint, null, explored, totalNode, redundant, startTime);
+				return getSolution(p, method, n, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
+			}
+			if (!deadlock(p, n)) { //check for deadlock
 				explored.add(n.state);
-				ArrayList<String> actions = p.actions(n.state);
-				for (int i=0; i<actions.size(); i++) {
-					Node child = getChild(p, n, actions.get(i), isUCS);
+				metrics.expanded(fringe.size(), explored.size());
+				if (spill != null)
+					spill.close(n);
+				for (Node child : expand(p, n, isUCS)) {
 					if((child!=null) && (child.state!=null)) {
 						totalNode++;
-						if ((!explored.contains(child.state))&&(!fringe.contains(child)))
-								fringe.add(child);
-						else {
+						if (explored.contains(child.state))
 							redundant++;
-							//check if fringe contains current state and compare the cost
-							for (Node next : fringe) {
-								if (next == child) 
-									if(child.cost < next.cost) {
-										next = child;
-									}
+						else {
+							Node next = fringe.get(child.state);
+							if (next != null) {
+								redundant++;
+								//fringe contains current state, keep the node with the lower cost
+								if (child.cost >= next.cost)
+									continue;
+							}
+							//a state with a box that cannot reach any goal is never added
+							if (evaluate(child, choice) < Problem.UNREACHABLE) {
+								detach(child);
+								fringe.add(child);
 							}
 						}
 					}
 				}
 			}
+			n.assignment = null; //its children have been evaluated
 		}
-		return getSolution(method, null, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
+		endCheckpoint(checkpoint, checkpoint == null ? null : fringe.nodes(), explored, totalNode, redundant, startTime);
+		return getSolution(p, method, null, totalNode, redundant, fringe.size(), explored.size(), System.currentTimeMillis() - startTime);
+	}
+	
+	/**
+	 * Implementation for bidirectional breadth-first search over box pushes. A forward search
+	 * pushes boxes from the initial state while a backward search pulls them away from the goal
+	 * states; every layer is expanded on the side with the smaller fringe. Both sides index the
+	 * states they reached by fingerprint, and a child that the other side has already reached
+	 * joins the two halves. The layer in which they first meet is finished, so the solution with
+	 * the fewest pushes is returned. This search always works on pushes; the move level of the
+	 * Search object is set back when it ends.
+	 * @param p
+	 * @return
+	 */
+	public String bidirectional(Problem p) {
+		boolean saved = pushLevel;
+		pushLevel = true;
+		try {
+			return pushBidirectional(p);
+		} finally {
+			pushLevel = saved;
+		}
+	}
+	
+	private String pushBidirectional(Problem p) {
+		long startTime = System.currentTimeMillis();
+		long totalNode = 1;
+		long redundant = 0;
+		Node root = getRoot(p);
+		if (p.goalTest(root.state))
+			return getSolution(p, BIDIRECTIONAL, root, totalNode, 0, 0, 0, System.currentTimeMillis() - startTime);
+		
+		HashMap<State, Node> forward = new HashMap<State, Node>();
+		HashMap<State, Node> backward = new HashMap<State, Node>();
+		ArrayList<Node> forwardFringe = new ArrayList<Node>();
+		ArrayList<Node> backwardFringe = new ArrayList<Node>();
+		forward.put(root.state, root);
+		if (!deadlock(p, root))
+			forwardFringe.add(root);
+		for (State s : p.goalStates()) {
+			Node n = new Node(s, null, 0, -1);
+			backward.put(s, n);
+			backwardFringe.add(n);
+			totalNode++;
+		}
+		Node solution = null;
+		while (solution == null && !forwardFringe.isEmpty() && !backwardFringe.isEmpty() && stopReason == null) {
+			boolean isForward = forwardFringe.size() <= backwardFringe.size();
+			HashMap<State, Node> reached = isForward ? forward : backward;
+			HashMap<State, Node> other = isForward ? backward : forward;
+			ArrayList<Node> layer = new ArrayList<Node>();
+			int best = Integer.MAX_VALUE;
+			for (Node n : isForward ? forwardFringe : backwardFringe) {
+				if (limitReached(totalNode))
+					break;
+				metrics.expanded(forwardFringe.size() + backwardFringe.size() + layer.size(),
+						forward.size() + backward.size() - layer.size());
+				for (Node child : isForward ? expand(p, n, false) : expandBackward(p, n)) {
+					totalNode++;
+					if (reached.containsKey(child.state)) {
+						redundant++;
+						continue;
+					}
+					Node meet = other.get(child.state);
+					if (meet != null) {
+						if (child.cost + meet.cost < best) {
+							best = child.cost + meet.cost;
+							solution = isForward ? join(p, child, meet) : join(p, meet, child);
+						}
+						continue;
+					}
+					if (isForward && deadlock(p, child))
+						continue;
+					reached.put(child.state, child);
+					layer.add(child);
+				}
+			}
+			if (isForward)
+				forwardFringe = layer;
+			else
+				backwardFringe = layer;
+		}
+		long fringeSize = forwardFringe.size() + backwardFringe.size();
+		return getSolution(p, BIDIRECTIONAL, solution, totalNode, redundant, fringeSize,
+				forward.size() + backward.size() - fringeSize, System.currentTimeMillis() - startTime);
+	}
+	
+	/**
+	 * returns the children of a node of the backward search, one for each legal box pull. Each
+	 * child stores the push that leads back to its parent.
+	 * @param p
+	 * @param n
+	 * @return
+	 */
+	private ArrayList<Node> expandBackward(Problem p, Node n) {
+		long t = metrics.clock();
+		ArrayList<Node> children = new ArrayList<Node>();
+		for (int pull : p.pulls(n.state, p.reachable(n.state.boxes, n.state.player)))
+			children.add(new Node(p.pull(n.state, pull), n, n.cost+1, p.reversePush(pull)));
+		metrics.generated += children.size();
+		metrics.successorNanos += metrics.clock() - t;
+		return children;
+	}
+	
+	/**
+	 * joins a forward node and a backward node for the same state into one path of pushes from
+	 * the initial state to the goal
+	 * @param p
+	 * @param front
+	 * @param back
+	 * @return
+	 */
+	private Node join(Problem p, Node front, Node back) {
+		Node n = front;
+		for (; back.parent != null; back = back.parent)
+			n = new Node(back.parent.state, n, n.cost+1, back.push);
+		return n;
+	}
+	
+	/**
+	 * Hash-distributed parallel version of prioritySearch (HDA*). Every state is owned by one
+	 * worker thread, chosen by its fingerprint, and each worker keeps its own fringe and explored
+	 * list and its own heuristics workspace. A worker expands its best node and sends the
+	 * children it does not own to their owners in batches, through lock-free queues.
+	 * <p>
+	 * Nodes are expanded out of global order, so a state can be reached again with a lower cost
+	 * after it was expanded; it is then expanded again. The cost of the best solution found is
+	 * shared, and nodes whose path cost plus the admissible lower bound of the heuristics reach it
+	 * are dropped; the chosen heuristic only orders the fringes, since it can overestimate and
+	 * would drop nodes on a cheaper path. The search ends when every worker is idle and no batch
+	 * is on its way. For greedy search it ends with the first solution.
+	 * @param p
+	 * @param choice 'u', 'g' or 'a' as for prioritySearch
+	 * @return
+	 */
+	public String parallelSearch(Problem p, char choice) {
+		String method = choice == 'a' ? ASTAR : choice == 'g' ? GREEDY : UCS;
+		long startTime = System.currentTimeMillis();
+		Node initial = getRoot(p);
+		evaluate(initial, choice);
+		if (choice == 'a')
+			initial.bound = lowerBound(initial);
+		mailboxes = new ArrayList<ConcurrentLinkedQueue<ArrayList<Node>>>();
+		work = new AtomicLong(threads);
+		incumbent = new AtomicInteger(Integer.MAX_VALUE);
+		done = false;
+		goal = null;
+		generatedTotal = new AtomicLong(1);
+		ArrayList<Worker> workers = new ArrayList<Worker>();
+		ArrayList<Thread> running = new ArrayList<Thread>();
+		ArrayList<SearchMetrics> parts = new ArrayList<SearchMetrics>();
+		for (int i = 0; i < threads; i++) {
+			mailboxes.add(new ConcurrentLinkedQueue<ArrayList<Node>>());
+			Search local = new Search(h, pushLevel);
+			local.corralLimit = corralLimit;
+			local.metrics.setTimed(metrics.isTimed());
+			local.metrics.setPeriod(metrics.getPeriod(), null); //the workers only publish, this thread reports
+			local.getRoot(p); //sets up the worker's own corral pruner
+			workers.add(new Worker(i, p, local, choice));
+			parts.add(local.metrics);
+		}
+		workers.get(owner(initial.state)).receive(initial);
+		for (Worker worker : workers) {
+			Thread thread = new Thread(worker, "search-" + worker.id);
+			running.add(thread);
+			thread.start();
+		}
+		for (Thread thread : running) {
+			try {
+				while (thread.isAlive()) {
+					thread.join(metrics.getPeriod());
+					if (metrics.getPeriod() > 0 && thread.isAlive())
+						metrics.publishSum(parts);
+				}
+			} catch (InterruptedException e) {
+				done = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+		long totalNode = 1, redundant = 0, fringeSize = 0, exploredSize = 0;
+		for (Worker worker : workers) {
+			totalNode += worker.generated;
+			redundant += worker.redundant;
+			fringeSize += worker.fringe.size();
+			exploredSize += worker.explored.size();
+			worker.local.metrics.finish(worker.fringe.size(), worker.explored.size());
+			worker.local.releaseScratch();
+		}
+		return getSolution(p, method + " (" + threads + " threads)", goal, totalNode, redundant, fringeSize, exploredSize,
+				System.currentTimeMillis() - startTime, metrics.publishSum(parts));
+	}
+	
+	/**
+	 * returns the worker that owns a state. The second key is used so that the owner does not
+	 * depend on the bits that place the state in the hash tables of the worker.
+	 */
+	private int owner(State s) {
+		return (int) ((s.fingerprint2() >>> 1) % threads);
+	}
+	
+	/**
+	 * records a solution found by a worker if it is better than the best one so far
+	 */
+	private synchronized void solution(Node n, char choice) {
+		if (n.cost < incumbent.get()) {
+			goal = n;
+			incumbent.set(n.cost);
+		}
+		if (choice == 'g')
+			done = true;
+	}
+	
+	/**
+	 * Worker of parallelSearch. It uses its own Search object for expanding and evaluating nodes,
+	 * so that the heuristics workspace and the corral pruner are not shared between threads.
+	 */
+	private class Worker implements Runnable {
+		final int id;
+		final Problem p;
+		final Search local;
+		final char choice;
+		final OpenList fringe = new OpenList();
+		final HashMap<State, Integer> explored = new HashMap<State, Integer>(); //lowest expanded cost
+		final ArrayList<ArrayList<Node>> outboxes = new ArrayList<ArrayList<Node>>();
+		long generated = 0;
+		long redundant = 0;
+
+		Worker(int id, Problem p, Search local, char choice) {
+			this.id = id;
+			this.p = p;
+			this.local = local;
+			this.choice = choice;
+			for (int i = 0; i < threads; i++)
+				outboxes.add(new ArrayList<Node>());
+		}
+
+		public void run() {
+			int expansions = 0;
+			long reported = 0; //part of generated already added to generatedTotal
+			while (!done) {
+				for (ArrayList<Node> batch = mailboxes.get(id).poll(); batch != null; batch = mailboxes.get(id).poll()) {
+					for (Node n : batch)
+						receive(n);
+					work.decrementAndGet();
+				}
+				Node n = fringe.poll();
+				if (n != null) {
+					expand(n);
+					if (++expansions % FLUSH_INTERVAL == 0) {
+						flush();
+						if (limitReached(generatedTotal.addAndGet(generated - reported)))
+							done = true;
+						reported = generated;
+					}
+					continue;
+				}
+				//out of nodes: hand everything over and wait for more work or the end of the search
+				flush();
+				if (!mailboxes.get(id).isEmpty())
+					continue;
+				work.decrementAndGet();
+				while (!done && mailboxes.get(id).isEmpty() && work.get() != 0)
+					LockSupport.parkNanos(50000);
+				if (work.get() == 0) {
+					done = true;
+					break;
+				}
+				work.incrementAndGet(); //only reached with a batch in the mailbox, so work was not 0
+			}
+		}
+
+		/**
+		 * adds a node sent to this worker unless its state was already reached as cheaply
+		 */
+		void receive(Node n) {
+			Integer cost = explored.get(n.state);
+			Node next = fringe.get(n.state);
+			if ((cost != null && cost <= n.cost) || (next != null && next.cost <= n.cost))
+				redundant++;
+			else
+				fringe.add(n);
+		}
+
+		void expand(Node n) {
+			if (choice != 'g' && n.cost + n.bound >= incumbent.get())
+				return; //cannot lead to a cheaper solution
+			Integer cost = explored.get(n.state);
+			if (cost != null && cost <= n.cost)
+				return;
+			if (p.goalTest(n.state)) {
+				solution(n, choice);
+				return;
+			}
+			if (local.deadlock(p, n))
+				return;
+			explored.put(n.state, n.cost);
+			local.metrics.expanded(fringe.size(), explored.size());
+			for (Node child : local.expand(p, n, choice == 'u')) {
+				if (child == null || child.state == null)
+					continue;
+				generated++;
+				if (local.evaluate(child, choice) >= Problem.UNREACHABLE)
+					continue;
+				if (choice == 'a')
+					child.bound = local.lowerBound(child);
+				if (choice != 'g' && child.cost + child.bound >= incumbent.get())
+					continue;
+				int to = owner(child.state);
+				if (to == id)
+					receive(child);
+				else {
+					outboxes.get(to).add(child);
+					if (outboxes.get(to).size() >= BATCH_SIZE)
+						send(to);
+				}
+			}
+			n.assignment = null; //its children have been evaluated
+		}
+
+		/**
+		 * sends the nodes waiting in every outbox, so that other workers do not wait for a full batch
+		 */
+		void flush() {
+			for (int to = 0; to < threads; to++)
+				if (!outboxes.get(to).isEmpty())
+					send(to);
+		}
+
+		void send(int to) {
+			work.incrementAndGet(); //counted before it can be received
+			mailboxes.get(to).add(outboxes.get(to));
+			outboxes.set(to, new ArrayList<Node>());
+		}
+	}
+	
+	/**
+	 * calculates the heuristic of a node once, when it is generated, and stores it on the node
+	 * together with its fringe priority f: the path cost for uniform-cost search, the heuristic
+	 * for greedy search and their sum for A* search. The heuristic is rounded up so that both are
+	 * integers.
+	 * @param n
+	 * @param choice
+	 * @return the heuristic
+	 */
+	private int evaluate(Node n, char choice) {
+		long t = metrics.clock();
+		n.h = choice == 'u' ? 0 : (int) Math.min(Math.ceil(h.getHeuristic(n, scratch)), Problem.UNREACHABLE);
+		metrics.heuristicNanos += metrics.clock() - t;
+		if (n.h >= Problem.UNREACHABLE)
+			metrics.pruned(Problem.Deadlock.UNREACHABLE);
+		if (choice == 'g')
+			n.f = n.h;
+		else
+			n.f = n.cost + n.h;
+		return n.h;
+	}
+	
+	/**
+	 * returns the admissible lower bound of the heuristics for a node, rounded up and at most
+	 * Problem.UNREACHABLE
+	 * @param n
+	 * @return
+	 */
+	private int lowerBound(Node n) {
+		long t = metrics.clock();
+		int bound = (int) Math.min(Math.ceil(h.getLowerBound(n, scratch, !pushLevel)), Problem.UNREACHABLE);
+		metrics.heuristicNanos += metrics.clock() - t;
+		return bound;
+	}
+	
+	/**
+	 * evaluates a node of IDA* search with the admissible lower bound instead of the chosen
+	 * heuristic, so that the bound on the path cost plus the heuristic never cuts off the
+	 * cheapest solution
+	 * @param n
+	 * @return the heuristic
+	 */
+	private int evaluateBound(Node n) {
+		n.h = lowerBound(n);
+		if (n.h >= Problem.UNREACHABLE)
+			metrics.pruned(Problem.Deadlock.UNREACHABLE);
+		n.f = n.cost + n.h;
+		return n.h;
+	}
+	
+	/**
+	 * Implementation for iterative-deepening A* search. Depth-first searches are repeated with a
+	 * growing bound on the path cost plus the heuristic, each one starting from the lowest value
+	 * that exceeded the previous bound. Moves are made and unmade on a single board, so only the
+	 * current path is kept in memory, together with a fixed-size transposition table that skips
+	 * states already reached with a lower or equal path cost in the same iteration. The heuristic
+	 * is the admissible lower bound of Heuristics.getLowerBound whatever heuristic was chosen, so
+	 * the solution is the cheapest one.
+	 * @param p
+	 * @return
+	 */
+	public String idaStar(Problem p) {
+		long startTime = System.currentTimeMillis();
+		Node root = getRoot(p);
+		//the board is changed in place, so it must not share box words with the problem
+		root.state = p.move(root.state, root.state.boxes.clone(), root.state.player, -1, -1);
+		table = new TranspositionTable(memoryBudget);
+		generated = 1;
+		revisited = 0;
+		goal = null;
+		if (!deadlock(p, root) && evaluateBound(root) < Problem.UNREACHABLE) {
+			int bound = root.f;
+			for (iteration = 1; bound != Integer.MAX_VALUE && stopReason == null; iteration++) {
+				bound = idaSearch(p, root, bound);
+				if (bound == FOUND)
+					break;
+			}
+		}
+		return getSolution(p, IDA, goal, generated, revisited, 0, table.size(), System.currentTimeMillis() - startTime);
+	}
+	
+	/**
+	 * searches below a node as long as the path cost plus the heuristic stays within the bound
+	 * @param p
+	 * @param n
+	 * @param bound
+	 * @return FOUND if the goal was reached, otherwise the lowest value above the bound
+	 * (Integer.MAX_VALUE if there was none)
+	 */
+	private int idaSearch(Problem p, Node n, int bound) {
+		if (n.f > bound)
+			return n.f;
+		if (p.goalTest(n.state)) {
+			goal = n;
+			return FOUND;
+		}
+		if (!table.visit(n.state, n.cost, iteration)) {
+			revisited++;
+			return Integer.MAX_VALUE;
+		}
+		metrics.expanded(0, table.size());
+		State s = n.state;
+		int next = Integer.MAX_VALUE;
+		if (pushLevel) {
+			int[] pushes = pushes(p, s);
+			if (pushes == null)
+				return next;
+			for (int push : pushes) {
+				Node child = new Node(p.makePush(s, push, true), n, n.cost+1, push);
+				int result = idaChild(p, child, bound);
+				p.unmakePush(s.boxes, push);
+				if (result == FOUND)
+					return FOUND;
+				if (stopReason != null)
+					return Integer.MAX_VALUE;
+				next = Math.min(next, result);
+			}
+			return next;
+		}
+		for (int dir = 0; dir < 4; dir++) {
+			int newPlayer = p.neighbor[s.player*4 + dir];
+			if (newPlayer < 0)
+				continue;
+			Node child;
+			int push = -1;
+			if (s.hasBox(newPlayer)) {
+				int newBox = p.neighbor[newPlayer*4 + dir];
+				if (newBox < 0 || s.hasBox(newBox))
+					continue;
+				push = newPlayer*4 + dir;
+				child = new Node(p.makePush(s, push, false), n, n.cost+1, Problem.ACTIONS[dir]);
+				child.push = push;
+			}
+			else
+				child = new Node(p.move(s, s.boxes, newPlayer, -1, -1), n, n.cost+1, Problem.ACTIONS[dir]);
+			int result = idaChild(p, child, bound);
+			if (push >= 0)
+				p.unmakePush(s.boxes, push);
+			if (result == FOUND)
+				return FOUND;
+			if (stopReason != null)
+				return Integer.MAX_VALUE;
+			next = Math.min(next, result);
+		}
+		return next;
+	}
+	
+	/**
+	 * checks a new child of IDA* search for deadlocks, evaluates it and searches below it
+	 */
+	private int idaChild(Problem p, Node child, int bound) {
+		generated++;
+		metrics.generated++;
+		if (limitReached(generated) || deadlock(p, child) || evaluateBound(child) >= Problem.UNREACHABLE)
+			return Integer.MAX_VALUE;
+		return idaSearch(p, child, bound);
 	}
 	
 	/**
 	 * When solution is found, or when a program fails to solve the puzzle, getSolution returns the solution
+	 * @param p
 	 * @param method
 	 * @param n
 	 * @param totalNode
@@ -184,17 +1157,36 @@ public class Search {
 	 * @param totalTime
 	 * @return
 	 */
-	private String getSolution(String method, Node n, int totalNode, int redundant, int fringeSize, int exploredSize, long totalTime) {
+	private String getSolution(Problem p, String method, Node n, long totalNode, long redundant, long fringeSize, long exploredSize, long totalTime) {
+		return getSolution(p, method, n, totalNode, redundant, fringeSize, exploredSize, totalTime,
+				metrics.finish(fringeSize, exploredSize));
+	}
+	
+	private String getSolution(Problem p, String method, Node n, long totalNode, long redundant, long fringeSize,
+			long exploredSize, long totalTime, SearchMetrics.Snapshot last) {
+		releaseScratch();
 		String result = "";
 		int steps = 0;
+		ArrayList<String> moves = n == null ? new ArrayList<String>() : getMoves(p, n);
+		deleteSpill();
+		SearchResult.Status status = n != null ? SearchResult.Status.SOLVED :
+			stopReason != null ? stopReason : SearchResult.Status.FAILED;
 		if (n == null)
 			result = "Failed to solve the puzzle";
 		else
-			while (n.parent!=null) {
-				result = n.move + " " + result;
-				n = n.parent;
+			for (String move : moves) {
+				result += move + " ";
 				steps++;
 			}
+		if (stopReason == SearchResult.Status.TIME_LIMIT && n == null)
+			result += " (time limit reached)";
+		if (stopReason == SearchResult.Status.NODE_LIMIT && n == null)
+			result += " (node limit reached)";
+		if (stopReason == SearchResult.Status.CANCELLED && n == null)
+			result += " (cancelled)";
+		if (pushLevel)
+			method += PUSH_LEVEL;
+		this.result = new SearchResult(method, status, moves, totalNode, redundant, fringeSize, exploredSize, totalTime, last);
 		result = "Using " + method + ":\n" + result + "\n(total of " + steps + " steps)" +
 				"\na) Number of nodes generated: " + totalNode + 
 				"\nb) Number of nodes containing states that were generated previously: " + redundant + 
@@ -205,107 +1197,291 @@ public class Search {
 	}
 	
 	/**
-	 * getChild method returns the child node according to the action performed (l, r, u, d)
-	 * if isUcs is true, add 1 to newCost whenever box is pushed
+	 * Follows the parent nodes back to the root and returns the player moves (u, r, d, l).
+	 * For a push-level search, the pushes are replayed from the initial state and the walk
+	 * to the cell behind each pushed box is found with a breadth-first search over the floor.
 	 * @param p
 	 * @param n
-	 * @param action
-	 * @param isUcs
 	 * @return
 	 */
-	private Node getChild(Problem p, Node n, String action, boolean isUcs) {
-		@SuppressWarnings("unchecked")
-		HashSet<Coordinate> boxes = (HashSet<Coordinate>) n.state.boxes.clone();
-		int row = n.state.player.row;
-		int col = n.state.player.col;
-		int newCost = n.cost+1;
-		Coordinate newPlayer = n.state.player;
-		char choice = action.charAt(0);
-		switch(choice) {
-			case 'u':
-				//update player coordinate
-				newPlayer = new Coordinate(row-1, col);
-				//check if player is pushing a box
-				if (boxes.contains(newPlayer)) {
-					Coordinate newBox = new Coordinate(row-2, col);
-					//update box coordinate
-					boxes.remove(newPlayer);
-					boxes.add(newBox);
-					if (isUcs)
-						newCost++;
-				}
-				break;
-			case 'd':
-				//update player coordinate
-				newPlayer = new Coordinate(row+1, col);
-				//check if player is pushing a box
-				if (boxes.contains(newPlayer)) {
-					Coordinate newBox = new Coordinate(row+2, col);
-					//update box coordinate
-					boxes.remove(newPlayer);
-					boxes.add(newBox);
-					if (isUcs)
-						newCost++;
-				}
-				break;
-			case 'l':
-				//update player coordinate
-				newPlayer = new Coordinate(row, col-1);
-				//check if player is pushing a box
-				if (boxes.contains(newPlayer)) {
-					Coordinate newBox = new Coordinate(row, col-2);
-					//update box coordinate
-					boxes.remove(newPlayer);
-					boxes.add(newBox);
-					if (isUcs)
-						newCost++;
-				}
-				break;
-			case 'r':
-				//update player coordinate
-				newPlayer = new Coordinate(row, col+1);
-				//check if player is pushing a box
-				if (boxes.contains(newPlayer)) {
-					Coordinate newBox = new Coordinate(row, col+2);
-					//update box coordinate
-					boxes.remove(newPlayer);
-					boxes.add(newBox);
-					if (isUcs)
-						newCost++;
-				}
+	private ArrayList<String> getMoves(Problem p, Node n) {
+		ArrayList<String> moves = new ArrayList<String>();
+		ArrayList<Node> path = new ArrayList<Node>();
+		for (; !n.isRoot(); n = n.parent) {
+			path.add(0, n);
+			if (n.parent == null) { //the rest of the path is in the closed log
+				path.addAll(0, spill.path(n.parentId));
 				break;
+			}
+		}
+		if (!pushLevel) {
+			for (Node step : path)
+				moves.add(step.move);
+			return moves;
+		}
+		ArrayList<Integer> pushes = new ArrayList<Integer>();
+		for (Node step : path)
+			pushes.add(step.push);
+		long[] boxes = p.initialState.boxes.clone();
+		int player = p.initialState.player;
+		for (int push : pushes) {
+			int box = push >>> 2;
+			int dir = push & 3;
+			int newBox = p.neighbor[push];
+			moves.addAll(p.path(boxes, player, p.neighbor[box*4 + ((dir+2) & 3)]));
+			moves.add(Problem.ACTIONS[dir]);
+			boxes[box >>> 6] &= ~(1L << box);
+			boxes[newBox >>> 6] |= 1L << newBox;
+			player = box;
+		}
+		return moves;
+	}
+	
+	/**
+	 * checks whether the search was cancelled and the time and node limits, and records which
+	 * one stopped the search
+	 * @param generated nodes generated so far
+	 * @return true if the search has to stop
+	 */
+	private boolean limitReached(long generated) {
+		if (stopReason == null) {
+			if (cancelled)
+				stopReason = SearchResult.Status.CANCELLED;
+			else if (nodeLimit > 0 && generated >= nodeLimit)
+				stopReason = SearchResult.Status.NODE_LIMIT;
+			else if (System.currentTimeMillis() >= deadline)
+				stopReason = SearchResult.Status.TIME_LIMIT;
+		}
+		return stopReason != null;
+	}
+	
+	/**
+	 * returns the node holding the initial state. For a push-level search the player
+	 * is normalized to the top-left cell it can walk to, and the corral pruner is set up.
+	 * @param p
+	 * @return
+	 */
+	private Node getRoot(Problem p) {
+		State initial = p.initialState;
+		stopReason = null;
+		deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+		metrics.start();
+		releaseScratch();
+		deleteSpill();
+		if (h != null)
+			scratch = h.acquire();
+		corrals = null;
+		if (pushLevel) {
+			initial = p.normalize(initial);
+			if (corralLimit > 0)
+				corrals = new CorralPruner(p, corralLimit);
+		}
+		return new Node(initial, null, 0, "");
+	}
+	
+	/**
+	 * creates the spill files of a breadth-first or priority search, if spilling is on
+	 * @param p
+	 */
+	private void startSpill(Problem p) {
+		if (spillDir != null)
+			spill = new SpillStore(p, spillDir, pushLevel);
+	}
+	
+	/**
+	 * deletes the spill files of the search
+	 */
+	private void deleteSpill() {
+		if (spill != null)
+			spill.delete();
+		spill = null;
+	}
+	
+	/**
+	 * returns a new explored set, kept off the heap when the search spills. The off-heap set is
+	 * split into segments, so it grows as far as the direct memory allows.
+	 * @return
+	 */
+	private FingerprintSet newExplored() {
+		if (spill != null)
+			return new FingerprintSet(EXPLORED_CAPACITY, true, false);
+		return new FingerprintSet(EXPLORED_CAPACITY, offHeap, verify);
+	}
+	
+	/**
+	 * returns the checkpoint of a breadth-first or priority search, or null when checkpoints are
+	 * off or the search spills to disk
+	 * @param p
+	 * @param method 'b' for breadth-first search, otherwise the choice of prioritySearch
+	 * @return
+	 */
+	private Checkpoint newCheckpoint(Problem p, char method) {
+		if (checkpointDir == null || spill != null)
+			return null;
+		String config = method + "" + (h == null ? '-' : h.hChoice) + (pushLevel ? "-push" : "-step");
+		return new Checkpoint(checkpointDir, p, config, pushLevel, checkpointPeriod);
+	}
+	
+	/**
+	 * saves a checkpoint of the running search. A checkpoint that cannot be written is reported
+	 * and the search goes on.
+	 */
+	private void saveCheckpoint(Checkpoint checkpoint, List<Node> fringe, FingerprintSet explored, long totalNode,
+			long redundant, long startTime) {
+		try {
+			checkpoint.write(fringe, explored, totalNode, redundant, System.currentTimeMillis() - startTime);
+		} catch (IOException e) {
+			System.out.println("Could not save checkpoint: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * saves the checkpoint of a search that a limit or cancel stopped, so a later run can go on,
+	 * and deletes it when the search is over
+	 * @param checkpoint the checkpoint of the search, or null
+	 * @param fringe
+	 * @param explored
+	 * @param totalNode
+	 * @param redundant
+	 * @param startTime
+	 */
+	private void endCheckpoint(Checkpoint checkpoint, List<Node> fringe, FingerprintSet explored, long totalNode,
+			long redundant, long startTime) {
+		if (checkpoint == null)
+			return;
+		if (fringe != null && stopReason != null)
+			saveCheckpoint(checkpoint, fringe, explored, totalNode, redundant, startTime);
+		else
+			checkpoint.delete();
+	}
+	
+	/**
+	 * makes a child that goes onto the fringe of a spilling search keep only the closed log
+	 * record of its parent, so that expanded nodes can be collected
+	 * @param child
+	 */
+	private void detach(Node child) {
+		if (spill != null) {
+			child.parentId = child.parent.id;
+			child.parent = null;
+		}
+	}
+	
+	/**
+	 * gives the heuristics workspace of the search back to the pool
+	 */
+	private void releaseScratch() {
+		if (h != null)
+			h.release(scratch);
+		scratch = null;
+	}
+	
+	/**
+	 * returns the child nodes of a node, one for each player move or, for a push-level search,
+	 * one for each legal box push. Push-level searches skip the pushes ruled out by corral
+	 * pruning, and return no children when a corral proves the node is a deadlock.
+	 * @param p
+	 * @param n
+	 * @param isUcs
+	 * @return
+	 */
+	private ArrayList<Node> expand(Problem p, Node n, boolean isUcs) {
+		ArrayList<Node> children = new ArrayList<Node>();
+		if (pushLevel) {
+			int[] pushes = pushes(p, n.state);
+			long t = metrics.clock();
+			if (pushes != null)
+				for (int push : pushes)
+					children.add(new Node(p.push(n.state, push), n, n.cost+1, push));
+			metrics.successorNanos += metrics.clock() - t;
+		}
+		else {
+			long t = metrics.clock();
+			for (String action : p.actions(n.state))
+				children.add(getChild(p, n, action, isUcs));
+			metrics.successorNanos += metrics.clock() - t;
 		}
-		return new Node(new State(boxes, newPlayer), n, newCost, Character.toString(choice));
+		metrics.generated += children.size();
+		return children;
 	}
 	
 	/**
-	 * Comparator for A*
+	 * returns the legal pushes of a state that corral pruning leaves, or null if a corral proves
+	 * the state is a deadlock. The time of corral pruning counts as deadlock time.
+	 * @param p
+	 * @param s
+	 * @return
 	 */
-	public static Comparator<Node> astarComparator = new Comparator<Node>() {
-		@Override
-		public int compare(Node n1, Node n2) {
-            return (int) ((n1.cost + h.getHeuristic(n1.state)) - (n2.cost + h.getHeuristic(n2.state)));
-        }
-	};
+	private int[] pushes(Problem p, State s) {
+		long t = metrics.clock();
+		long[] reach = p.reachable(s.boxes, s.player);
+		int[] pushes = p.pushes(s, reach);
+		long u = metrics.clock();
+		metrics.successorNanos += u - t;
+		if (corrals != null) {
+			pushes = corrals.prune(s, reach, pushes);
+			metrics.deadlockNanos += metrics.clock() - u;
+			if (pushes == null)
+				metrics.pruned(Problem.Deadlock.CORRAL);
+		}
+		return pushes;
+	}
 	
 	/**
-	 * Comparator for UCS
+	 * checks whether a node is in a deadlock state. The root is checked in full; any other node
+	 * can only have become dead through the box pushed by its last move.
+	 * @param p
+	 * @param n
+	 * @return
 	 */
-	public static Comparator<Node> costComparator = new Comparator<Node>(){
-		@Override
-		public int compare(Node n1, Node n2) {
-            return (int) (n1.cost - n2.cost);
-        }
-	};
+	private boolean deadlock(Problem p, Node n) {
+		if (!n.isRoot() && n.push < 0)
+			return false;
+		long t = metrics.clock();
+		Problem.Deadlock rule = n.isRoot() ? p.deadlockRule(n.state) : p.deadlockRule(n.state, n.push);
+		metrics.deadlockNanos += metrics.clock() - t;
+		if (rule == null)
+			return false;
+		metrics.pruned(rule);
+		return true;
+	}
 	
 	/**
-	 * Comparator for greedy search
+	 * getChild method returns the child node according to the action performed (l, r, u, d)
+	 * if isUcs is true, add 1 to newCost whenever box is pushed.
+	 * The child shares the box words of its parent unless a box is pushed.
+	 * @param p
+	 * @param n
+	 * @param action
+	 * @param isUcs
+	 * @return
 	 */
-	public static Comparator<Node> greedyComparator = new Comparator<Node>() {
-		@Override
-		public int compare(Node n1, Node n2) {
-            return (int) ((h.getHeuristic(n1.state)) - (h.getHeuristic(n2.state)));
-        }
-	};
+	Node getChild(Problem p, Node n, String action, boolean isUcs) {
+		long[] boxes = n.state.boxes;
+		int newCost = n.cost+1;
+		int dir;
+		switch(action.charAt(0)) {
+			case 'u': dir = 0; break;
+			case 'r': dir = 1; break;
+			case 'd': dir = 2; break;
+			default: dir = 3; break;
+		}
+		//update player cell
+		int newPlayer = p.neighbor[n.state.player*4 + dir];
+		//check if player is pushing a box
+		if (n.state.hasBox(newPlayer)) {
+			int newBox = p.neighbor[newPlayer*4 + dir];
+			//update box cell
+			boxes = boxes.clone();
+			boxes[newPlayer >>> 6] &= ~(1L << newPlayer);
+			boxes[newBox >>> 6] |= 1L << newBox;
+			if (isUcs)
+				newCost++;
+			Node child = new Node(p.move(n.state, boxes, newPlayer, newPlayer, newBox), n, newCost, Problem.ACTIONS[dir]);
+			child.push = newPlayer*4 + dir;
+			return child;
+		}
+		return new Node(p.move(n.state, boxes, newPlayer, -1, -1), n, newCost, Problem.ACTIONS[dir]);
+	}
 	
 }
@@ -0,0 +1,307 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * SearchMetrics counts what a running search does: the nodes it generates and expands, the time
+ * it spends on heuristics, deadlock tests and successor generation, the nodes pruned by each
+ * deadlock rule, and the size of its open and closed lists. The counters are written by the search
+ * thread only. While the search runs, it publishes an immutable Snapshot of them once per period;
+ * other threads read the latest one with getSnapshot, and the listener, if there is one, is
+ * called with each of them on the search thread.
+ * <p>
+ * Timing calls System.nanoTime around every heuristic, deadlock test and expansion, so it is only
+ * switched on when asked for.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class SearchMetrics {
+
+	/**
+	 * receives the snapshots of a search as they are published
+	 */
+	public interface Listener {
+		void snapshot(Snapshot s);
+	}
+
+	/**
+	 * the counters of a search at one point in time
+	 */
+	public static class Snapshot {
+		final long elapsed; //ms since the search started
+		final long generated;
+		final long expanded;
+		final double generatedRate; //per second since the previous snapshot
+		final double expandedRate;
+		final long heuristicTime; //ms, 0 unless timing is on
+		final long deadlockTime;
+		final long successorTime;
+		final long[] prunes; //indexed by Problem.Deadlock ordinal
+		final long open;
+		final long closed;
+		final long bytesPerNode; //heap growth since the start per node on the open and closed lists
+
+		Snapshot(long elapsed, long generated, long expanded, double generatedRate, double expandedRate,
+				long heuristicTime, long deadlockTime, long successorTime, long[] prunes, long open, long closed,
+				long bytesPerNode) {
+			this.elapsed = elapsed;
+			this.generated = generated;
+			this.expanded = expanded;
+			this.generatedRate = generatedRate;
+			this.expandedRate = expandedRate;
+			this.heuristicTime = heuristicTime;
+			this.deadlockTime = deadlockTime;
+			this.successorTime = successorTime;
+			this.prunes = prunes;
+			this.open = open;
+			this.closed = closed;
+			this.bytesPerNode = bytesPerNode;
+		}
+
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		public long getGenerated() {
+			return generated;
+		}
+
+		public long getExpanded() {
+			return expanded;
+		}
+
+		public double getGeneratedRate() {
+			return generatedRate;
+		}
+
+		public double getExpandedRate() {
+			return expandedRate;
+		}
+
+		public long getHeuristicTime() {
+			return heuristicTime;
+		}
+
+		public long getDeadlockTime() {
+			return deadlockTime;
+		}
+
+		public long getSuccessorTime() {
+			return successorTime;
+		}
+
+		public long getPrunes(Problem.Deadlock rule) {
+			return prunes[rule.ordinal()];
+		}
+
+		public long getOpen() {
+			return open;
+		}
+
+		public long getClosed() {
+			return closed;
+		}
+
+		public long getBytesPerNode() {
+			return bytesPerNode;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder(String.format(Locale.US,
+					"%dms: %d generated (%.0f/s), %d expanded (%.0f/s), open %d, closed %d, ~%d B/node",
+					elapsed, generated, generatedRate, expanded, expandedRate, open, closed, bytesPerNode));
+			if (heuristicTime + deadlockTime + successorTime > 0)
+				sb.append(String.format(Locale.US, ", heuristic %dms, deadlock %dms, successors %dms",
+						heuristicTime, deadlockTime, successorTime));
+			sb.append(", pruned");
+			for (Problem.Deadlock rule : Problem.Deadlock.values())
+				sb.append(' ').append(rule.name().toLowerCase()).append('=').append(prunes[rule.ordinal()]);
+			return sb.toString();
+		}
+	}
+
+	private static final int CHECK_INTERVAL = 256; //expansions between looks at the clock
+
+	//counters, written by the search thread
+	long generated;
+	long expanded;
+	long heuristicNanos;
+	long deadlockNanos;
+	long successorNanos;
+	final long[] prunes = new long[Problem.Deadlock.values().length];
+	long open;
+	long closed;
+
+	private boolean timed = false;
+	private long period = 0; //ms between snapshots, 0 for none
+	private Listener listener;
+	private long startTime;
+	private long startHeap;
+	private long nextSnapshot;
+	private volatile Snapshot latest;
+	private final List<Snapshot> history = Collections.synchronizedList(new ArrayList<Snapshot>());
+
+	/**
+	 * Sets how often a running search publishes a snapshot and who receives it
+	 * @param period milliseconds, 0 for no snapshots until the search ends
+	 * @param listener called on the search thread, may be null
+	 */
+	public void setPeriod(long period, Listener listener) {
+		this.period = period;
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets whether the time spent on heuristics, deadlock tests and successors is measured
+	 * @param timed
+	 */
+	public void setTimed(boolean timed) {
+		this.timed = timed;
+	}
+
+	public long getPeriod() {
+		return period;
+	}
+
+	public boolean isTimed() {
+		return timed;
+	}
+
+	/**
+	 * returns the latest published snapshot, or null before the first one. Safe to call from
+	 * any thread.
+	 * @return
+	 */
+	public Snapshot getSnapshot() {
+		return latest;
+	}
+
+	/**
+	 * returns the snapshots published by the current search, oldest first
+	 * @return
+	 */
+	public ArrayList<Snapshot> getHistory() {
+		synchronized (history) {
+			return new ArrayList<Snapshot>(history);
+		}
+	}
+
+	/**
+	 * resets the counters for a new search
+	 */
+	void start() {
+		generated = expanded = heuristicNanos = deadlockNanos = successorNanos = 0;
+		for (int i = 0; i < prunes.length; i++)
+			prunes[i] = 0;
+		open = closed = 0;
+		startTime = System.currentTimeMillis();
+		startHeap = usedHeap();
+		nextSnapshot = startTime + period;
+		latest = null;
+		history.clear();
+	}
+
+	/**
+	 * returns System.nanoTime when timing is on, 0 otherwise, so that the difference of two
+	 * calls can always be added to a time counter
+	 */
+	long clock() {
+		return timed ? System.nanoTime() : 0;
+	}
+
+	void pruned(Problem.Deadlock rule) {
+		prunes[rule.ordinal()]++;
+	}
+
+	/**
+	 * counts an expanded node and records the list sizes after it; publishes a snapshot when
+	 * the period is over
+	 * @param open
+	 * @param closed
+	 */
+	void expanded(long open, long closed) {
+		this.open = open;
+		this.closed = closed;
+		if (++expanded % CHECK_INTERVAL == 0 && period > 0 && System.currentTimeMillis() >= nextSnapshot) {
+			publish(snapshot());
+			nextSnapshot = System.currentTimeMillis() + period;
+		}
+	}
+
+	/**
+	 * publishes the final snapshot of the search, with the given list sizes
+	 * @param open
+	 * @param closed
+	 * @return
+	 */
+	Snapshot finish(long open, long closed) {
+		this.open = open;
+		this.closed = closed;
+		Snapshot s = snapshot();
+		publish(s);
+		return s;
+	}
+
+	/**
+	 * Used by the thread that waits for the workers of a parallel search: publishes the sum of
+	 * the latest snapshots of the workers' metrics.
+	 * @param parts
+	 * @return the published snapshot
+	 */
+	Snapshot publishSum(ArrayList<SearchMetrics> parts) {
+		long g = 0, e = 0, hTime = 0, dTime = 0, sTime = 0;
+		long[] pruned = new long[prunes.length];
+		long o = 0, c = 0;
+		for (SearchMetrics part : parts) {
+			Snapshot s = part.latest;
+			if (s == null)
+				continue;
+			g += s.generated;
+			e += s.expanded;
+			hTime += s.heuristicTime;
+			dTime += s.deadlockTime;
+			sTime += s.successorTime;
+			for (int i = 0; i < pruned.length; i++)
+				pruned[i] += s.prunes[i];
+			o += s.open;
+			c += s.closed;
+		}
+		Snapshot s = make(g, e, hTime, dTime, sTime, pruned, o, c);
+		publish(s);
+		return s;
+	}
+
+	private Snapshot snapshot() {
+		return make(generated, expanded, heuristicNanos / 1000000, deadlockNanos / 1000000,
+				successorNanos / 1000000, prunes.clone(), open, closed);
+	}
+
+	private Snapshot make(long generated, long expanded, long heuristicTime, long deadlockTime,
+			long successorTime, long[] prunes, long open, long closed) {
+		long now = System.currentTimeMillis();
+		long elapsed = now - startTime;
+		Snapshot previous = latest;
+		long since = previous == null ? elapsed : elapsed - previous.elapsed;
+		long prevGenerated = previous == null ? 0 : previous.generated;
+		long prevExpanded = previous == null ? 0 : previous.expanded;
+		double seconds = Math.max(1, since) / 1000.0;
+		long nodes = Math.max(1, open + closed);
+		return new Snapshot(elapsed, generated, expanded, (generated - prevGenerated) / seconds,
+				(expanded - prevExpanded) / seconds, heuristicTime, deadlockTime, successorTime, prunes,
+				open, closed, Math.max(0, usedHeap() - startHeap) / nodes);
+	}
+
+	private void publish(Snapshot s) {
+		latest = s;
+		history.add(s);
+		if (listener != null)
+			listener.snapshot(s);
+	}
+
+	private static long usedHeap() {
+		Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+
+}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+
+/**
+ * SearchResult holds the outcome of one search: the moves of the solution, if one was found,
+ * why the search stopped, the node counts that are printed with the solution, and the final
+ * snapshot of the search metrics.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class SearchResult {
+
+	/**
+	 * why a search stopped
+	 */
+	public enum Status {
+		SOLVED, FAILED, TIME_LIMIT, NODE_LIMIT, CANCELLED
+	}
+
+	final String method;
+	final Status status;
+	final ArrayList<String> moves; //player moves (u, r, d, l), empty if no solution was found
+	final long nodes;
+	final long redundant;
+	final long fringe;
+	final long explored;
+	final long time; //ms
+	final SearchMetrics.Snapshot metrics;
+
+	public SearchResult(String method, Status status, ArrayList<String> moves, long nodes, long redundant,
+			long fringe, long explored, long time, SearchMetrics.Snapshot metrics) {
+		this.method = method;
+		this.status = status;
+		this.moves = moves;
+		this.nodes = nodes;
+		this.redundant = redundant;
+		this.fringe = fringe;
+		this.explored = explored;
+		this.time = time;
+		this.metrics = metrics;
+	}
+
+	public boolean isSolved() {
+		return status == Status.SOLVED;
+	}
+
+	/**
+	 * returns the moves of the solution separated by spaces, or an empty string
+	 * @return
+	 */
+	public String getSolution() {
+		StringBuilder sb = new StringBuilder();
+		for (String move : moves) {
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append(move);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * returns the moves of the solution, or an empty array
+	 * @return
+	 */
+	public String[] getMoves() {
+		return moves.toArray(new String[moves.size()]);
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public int getSteps() {
+		return moves.size();
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getRedundant() {
+		return redundant;
+	}
+
+	public long getFringe() {
+		return fringe;
+	}
+
+	public long getExplored() {
+		return explored;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public SearchMetrics.Snapshot getMetrics() {
+		return metrics;
+	}
+
+}
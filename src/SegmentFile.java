@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * SegmentFile is a list of fixed-size records of longs kept outside the heap, in memory-mapped
+ * files. The records are split into segment files of SEGMENT_BYTES each, which are mapped when
+ * the first record is added to them and deleted when the list is truncated below them, so the
+ * operating system pages them in and out as they are used. Records are added at the end and
+ * can be read anywhere, except before an index the owner has discarded.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class SegmentFile {
+
+	private static final int SEGMENT_BYTES = 1 << 24;
+
+	private final File dir;
+	private final String name;
+	private final int recordLongs;
+	private final int perSegment; //records in each segment file
+	private final ArrayList<LongBuffer> segments = new ArrayList<LongBuffer>();
+	private final ArrayList<File> files = new ArrayList<File>();
+	private long size;
+	private int discarded; //segments deleted at the front
+
+	/**
+	 * @param dir directory of the segment files
+	 * @param name prefix of the segment file names
+	 * @param recordLongs longs in a record
+	 */
+	public SegmentFile(File dir, String name, int recordLongs) {
+		this.dir = dir;
+		this.name = name;
+		this.recordLongs = recordLongs;
+		this.perSegment = SEGMENT_BYTES / (8 * recordLongs);
+	}
+
+	/**
+	 * appends a record
+	 * @param record
+	 * @return the index of the record
+	 */
+	public long add(long[] record) {
+		int segment = (int) (size / perSegment);
+		if (segment == segments.size())
+			map(segment);
+		LongBuffer buffer = segments.get(segment);
+		int base = (int) (size % perSegment) * recordLongs;
+		for (int i = 0; i < recordLongs; i++)
+			buffer.put(base + i, record[i]);
+		return size++;
+	}
+
+	/**
+	 * copies the record at the given index into record
+	 * @param index
+	 * @param record
+	 */
+	public void get(long index, long[] record) {
+		LongBuffer buffer = segments.get((int) (index / perSegment));
+		int base = (int) (index % perSegment) * recordLongs;
+		for (int i = 0; i < recordLongs; i++)
+			record[i] = buffer.get(base + i);
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * drops the records from the given index on, and deletes the segment files left empty
+	 * @param newSize
+	 */
+	public void truncate(long newSize) {
+		size = Math.min(size, newSize);
+		int keep = (int) ((size + perSegment - 1) / perSegment);
+		while (segments.size() > keep) {
+			segments.remove(segments.size()-1);
+			files.remove(files.size()-1).delete();
+		}
+		discarded = Math.min(discarded, segments.size());
+	}
+
+	/**
+	 * deletes the segment files that only hold records before the given index, which are no
+	 * longer read
+	 * @param index
+	 */
+	public void discard(long index) {
+		for (; discarded < index / perSegment && discarded < segments.size(); discarded++) {
+			segments.set(discarded, null);
+			files.get(discarded).delete();
+		}
+	}
+
+	/**
+	 * drops all records and deletes the segment files
+	 */
+	public void delete() {
+		truncate(0);
+	}
+
+	private void map(int segment) {
+		File file = new File(dir, name + "." + segment);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				//the mapping stays valid after the channel is closed
+				segments.add(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) perSegment * recordLongs * 8)
+						.order(ByteOrder.nativeOrder()).asLongBuffer());
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map " + file + ": " + e.getMessage(), e);
+		}
+		files.add(file);
+	}
+
+}
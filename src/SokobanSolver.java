@@ -1,12 +1,20 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * SokobanSolver loads the input file and stores each character into appropriate set (walls, goals, boxes or player)
  * After the file is read, it calls Search class to solve the sokoban puzzle according to the chosen search method.
+ * <p>
+ * Every solve runs on its own Search object, so a loaded puzzle can be solved by several threads
+ * at the same time; they share the read-only problem, the thread-safe deadlock database and the
+ * heuristics, whose scratch space comes from a pool. loadFile, load and the setters must not be called
+ * while a solve is running.
  * @author Hyun Seung Hong (hh2473)
  *
  */
@@ -22,12 +30,31 @@ public class SokobanSolver {
 	
 	private int row;
 	private int col;
+	private int corralLimit = CorralPruner.DEFAULT_NODE_LIMIT;
+	private long timeLimit = 0; //ms per search, 0 for none
+	private long nodeLimit = 0; //generated nodes per search, 0 for none
+	private boolean verbose = true; //print the size of loaded puzzles
+	private volatile SearchResult result;
+	private int threads = 1; //worker threads for uniform-cost, greedy and A* search
+	private long memoryBudget = TranspositionTable.DEFAULT_BUDGET; //bytes for the IDA* table
+	private boolean offHeap = false; //keep the explored set in direct buffers
+	private boolean verify = false; //compare full states when fingerprints match
+	private File deadlockDir; //where learned deadlock patterns are kept, or null
+	private File spillDir; //where searches spill their fringe, or null
+	private int hotNodes = Search.DEFAULT_HOT_NODES;
+	private File checkpointDir; //where searches save checkpoints, or null
+	private long checkpointPeriod = Search.DEFAULT_CHECKPOINT_PERIOD;
+	private long metricsPeriod = 0; //ms between metrics snapshots, 0 for none
+	private boolean timed = false; //measure where the search spends its time
+	private SearchMetrics.Listener metricsListener;
+	private final Set<Search> running = Collections.synchronizedSet(new HashSet<Search>());
+	private volatile boolean cancelled = false; //set by cancel until clearCancel
 	
 	public SokobanSolver() {
 	}
 	
 	/**
-	 * Reads each line from the input file and adds each character to walls, goals, player or boxes
+	 * Reads a single-level file, whose first line is the number of rows, and loads its level
 	 * @param filename
 	 * @return
 	 * @throws FileNotFoundException
@@ -36,16 +63,35 @@ public class SokobanSolver {
 	 */
 	public int loadFile(String filename, char hChoice) throws FileNotFoundException, 
 			NumberFormatException, NoSuchElementException {
-		
+		Scanner s = new Scanner(new File(filename));
+		try {
+			String[] rows = new String[Integer.parseInt(s.nextLine())];
+			for (int i=0; i<rows.length; i++)
+				rows[i] = s.nextLine();
+			return load(new Level(filename, 1, rows), hChoice);
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * Adds each character of the rows of a level to walls, goals, player or boxes and sets up
+	 * the problem and heuristics for solving it. A level without exactly one player is not set up
+	 * and must not be solved.
+	 * @param level
+	 * @param hChoice
+	 * @return the number of players in the level
+	 */
+	public int load(Level level, char hChoice) {
 		col = 0;
+		row = level.rows.length;
 		int numPlayer = 0;
+		player = null;
 		walls = new HashSet<Coordinate>();
 		goals = new HashSet<Coordinate>();
 		boxes = new HashSet<Coordinate>();
-		Scanner s = new Scanner(new File(filename));
-		row = Integer.parseInt(s.nextLine());
 		for (int i=0; i<row; i++) {
-			String next = s.nextLine();
+			String next = level.rows[i];
 			for (int j=0; j<next.length(); j++) {
 				char c = next.charAt(j);
 				if (c=='#') //walls
@@ -62,9 +108,17 @@ public class SokobanSolver {
 			if (next.length() > col)
 				col = next.length();
 		}
-		prob = new Problem(walls, new State(boxes, player), goals);
-		h = new Heuristics(goals, hChoice);
-		System.out.println("row: " + row + ", col: " + col);
+		if (numPlayer != 1) { //the problem needs exactly one player cell to start from
+			prob = null;
+			h = null;
+			return numPlayer;
+		}
+		prob = new Problem(walls, boxes, player, goals);
+		if (deadlockDir != null)
+			prob.deadlocks.load(deadlockDir);
+		h = new Heuristics(prob, hChoice);
+		if (verbose)
+			System.out.println("row: " + row + ", col: " + col);
 		return numPlayer;
 	}
 
@@ -74,23 +128,246 @@ public class SokobanSolver {
 	 * @return
 	 */
 	public String solve(char method) {
-		Search s = new Search(h);
+		return solve(method, false);
+	}
+	
+	/**
+	 * Calls appropriate search method to solve the puzzle, searching over box pushes
+	 * instead of single player moves if pushLevel is true
+	 * @param method
+	 * @param pushLevel
+	 * @return
+	 */
+	public String solve(char method, boolean pushLevel) {
+		Search s = newSearch(pushLevel);
+		String answer = run(s, method);
+		result = s.getResult();
+		if (answer == null)
+			return "Invalid method, please choose a valid search method.";
+		saveDeadlocks();
+		return answer;
+	}
+
+	/**
+	 * Same as solve, but returns the result instead of the printed solution. Use this rather
+	 * than getResult when several threads solve the puzzle at the same time.
+	 * @param method
+	 * @param pushLevel
+	 * @return the result, or null if the method is invalid
+	 */
+	public SearchResult search(char method, boolean pushLevel) {
+		Search s = newSearch(pushLevel);
+		if (run(s, method) == null)
+			return null;
+		saveDeadlocks();
+		return s.getResult();
+	}
+
+	private Search newSearch(boolean pushLevel) {
+		Search s = new Search(h, pushLevel);
+		s.setCorralLimit(corralLimit);
+		s.setMemoryBudget(memoryBudget);
+		s.setExploredSet(offHeap, verify);
+		s.setSpill(spillDir, hotNodes);
+		s.setCheckpoint(checkpointDir, checkpointPeriod);
+		s.setThreads(threads);
+		s.setLimits(timeLimit, nodeLimit);
+		s.getMetrics().setPeriod(metricsPeriod, metricsListener);
+		s.getMetrics().setTimed(timed);
+		return s;
+	}
+
+	/**
+	 * Cancels the searches that are running. Each one stops at its next check of the limits
+	 * and returns without a solution, with status CANCELLED. The cancel is kept until
+	 * clearCancel, so a search that starts later, for example while the puzzle is still being
+	 * loaded, stops at once. Safe to call from any thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+		synchronized (running) {
+			for (Search s : running)
+				s.cancel();
+		}
+	}
+
+	/**
+	 * Forgets an earlier cancel, so that the next searches run. Call it before a new solve starts.
+	 */
+	public void clearCancel() {
+		cancelled = false;
+	}
+
+	/**
+	 * runs the chosen search method
+	 * @return the printed solution, or null if the method is invalid
+	 */
+	private String run(Search s, char method) {
+		running.add(s);
+		if (cancelled) //checked after adding, so a concurrent cancel reaches the search either way
+			s.cancel();
+		try {
+			return runMethod(s, method);
+		} finally {
+			running.remove(s);
+		}
+	}
+
+	private String runMethod(Search s, char method) {
 		switch(method) {
 		case 'b':
 			return s.bfs(prob);
 		case 'd':
 			return s.dfs(prob);
 		case 'u':
-			return s.prioritySearch(prob, 'u');
 		case 'a':
-			return s.prioritySearch(prob, 'a');	
 		case 'g':
-			return s.prioritySearch(prob, 'g');
+			return threads > 1 ? s.parallelSearch(prob, method) : s.prioritySearch(prob, method);
+		case 'i':
+			return s.idaStar(prob);
+		case 't':
+			return s.bidirectional(prob);
+		case 'e':
+			return s.externalBfs(prob);
 		default:
-			return "Invalid method, please choose a valid search method.";
+			return null;
 		}
 	}
 
+	/**
+	 * Saves the deadlock patterns learned during the last search, so the next run on the same
+	 * level starts with them
+	 */
+	private void saveDeadlocks() {
+		if (deadlockDir == null || prob.deadlocks.learned() == 0)
+			return;
+		try {
+			prob.deadlocks.save(deadlockDir);
+		} catch (IOException e) {
+			System.out.println("Could not save deadlock patterns: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sets the node limit of the corral sub-searches of push-level searches (0 turns them off)
+	 * @param nodeLimit
+	 */
+	public void setCorralLimit(int nodeLimit) {
+		corralLimit = nodeLimit;
+	}
+
+	/**
+	 * returns the result of the last call to solve that finished, or null if the method was invalid
+	 * @return
+	 */
+	public SearchResult getResult() {
+		return result;
+	}
+
+	/**
+	 * Sets the time and node limits of every search (0 for no limit)
+	 * @param timeLimit milliseconds
+	 * @param nodeLimit generated nodes
+	 */
+	public void setLimits(long timeLimit, long nodeLimit) {
+		this.timeLimit = timeLimit;
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * Sets how the searches report their metrics while they run
+	 * @param period milliseconds between snapshots, 0 for none
+	 * @param timed whether the time spent on heuristics, deadlock tests and successors is measured
+	 * @param listener receives the snapshots on the search thread, may be null
+	 */
+	public void setMetrics(long period, boolean timed, SearchMetrics.Listener listener) {
+		this.metricsPeriod = period;
+		this.timed = timed;
+		this.metricsListener = listener;
+	}
+
+	/**
+	 * Sets whether loadFile and load print the size of the puzzle
+	 * @param verbose
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Sets the number of worker threads for uniform-cost, greedy and A* search. With more than one,
+	 * they run as hash-distributed parallel searches.
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets how the explored sets of breadth-first, depth-first, uniform-cost, greedy and A* search
+	 * are stored. They always hold 128-bit state fingerprints; offHeap keeps them in direct
+	 * buffers instead of on the heap, and verify also keeps the states, so that two states with
+	 * the same fingerprint are compared in full. Spilling searches always keep them off the heap
+	 * without states.
+	 * @param offHeap
+	 * @param verify
+	 */
+	public void setExploredSet(boolean offHeap, boolean verify) {
+		this.offHeap = offHeap;
+		this.verify = verify;
+	}
+
+	/**
+	 * Sets the number of bytes the transposition table of IDA* search may use
+	 * @param bytes
+	 */
+	public void setMemoryBudget(long bytes) {
+		memoryBudget = bytes;
+	}
+
+	/**
+	 * Lets breadth-first, uniform-cost, greedy and A* search spill their fringe to memory-mapped
+	 * files and keep their explored set off the heap, for levels with more states than fit on the
+	 * heap. Parallel searches do not spill. External breadth-first search keeps its layers in the
+	 * same directory, or in the temporary directory, and sorts hotNodes children at a time.
+	 * @param dir directory for the spill files, or null to keep everything on the heap
+	 * @param hotNodes fringe nodes kept on the heap
+	 */
+	public void setSpill(File dir, int hotNodes) {
+		spillDir = dir;
+		this.hotNodes = hotNodes;
+	}
+
+	/**
+	 * Lets breadth-first, uniform-cost, greedy and A* search save a checkpoint every period ms
+	 * and when they are stopped by a limit or cancelled, and go on from the checkpoint of an
+	 * earlier run on the same level with the same configuration. Parallel and spilling searches
+	 * do not save checkpoints.
+	 * @param dir directory of the checkpoint files, or null to turn checkpoints off
+	 * @param period ms between checkpoints
+	 */
+	public void setCheckpoint(File dir, long period) {
+		checkpointDir = dir;
+		checkpointPeriod = period;
+	}
+
+	/**
+	 * Sets the directory where learned deadlock patterns are saved, one file per level
+	 * (null, the default, keeps them in memory only)
+	 * @param dir
+	 */
+	public void setDeadlockDirectory(File dir) {
+		deadlockDir = dir;
+	}
+
+	/**
+	 * returns the problem of the loaded puzzle
+	 * @return
+	 */
+	Problem getProblem() {
+		return prob;
+	}
+
 	public int getRow() {
 		return row;
 	}
@@ -9,6 +9,10 @@ import java.io.IOException;
 public class SokobanTester {
 
 	public static void main(String[] args) {
+		if (args.length > 0) { //run without the window
+			BatchSolver.main(args);
+			return;
+		}
 		try {
 			MainFrame m = new MainFrame();
 		} catch (IOException e) {
@@ -0,0 +1,174 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * SpillStore holds the nodes that a search keeps on disk instead of on the heap. It owns a
+ * directory of memory-mapped segment files for one search:
+ * <ul>
+ * <li>the closed log, one record (parent record, move) for every expanded node, so that nodes
+ * only need the index of their parent's record and the solution can still be rebuilt, and</li>
+ * <li>the fringe files, in which nodes are stored in a compact binary form: the box words, the
+ * player and path cost, the heuristic and move, and the parent record.</li>
+ * </ul>
+ * The heuristic assignment of a stored node is not kept; it is computed again from scratch
+ * when its children are evaluated.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class SpillStore {
+
+	private final Problem p;
+	private final boolean pushLevel;
+	private final File dir;
+	private final int words; //box words of a state
+	private final SegmentFile closed;
+	private final ArrayList<SegmentFile> files = new ArrayList<SegmentFile>();
+	private final long[] record;
+	private final long[] link = new long[2];
+
+	/**
+	 * creates a new directory for the files of one search
+	 * @param p
+	 * @param parent directory in which the search directory is created
+	 * @param pushLevel
+	 */
+	public SpillStore(Problem p, File parent, boolean pushLevel) {
+		this.p = p;
+		this.pushLevel = pushLevel;
+		this.words = p.initialState.boxes.length;
+		this.record = new long[words + 3];
+		try {
+			parent.mkdirs();
+			dir = File.createTempFile("search", "", parent);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not create a spill directory in " + parent + ": " + e.getMessage(), e);
+		}
+		if (!dir.delete() || !dir.mkdir())
+			throw new IllegalStateException("Could not create spill directory " + dir);
+		closed = new SegmentFile(dir, "closed", 2);
+	}
+
+	/**
+	 * returns a new file for fringe nodes in the directory of the search
+	 * @param name
+	 * @return
+	 */
+	public SegmentFile newFile(String name) {
+		SegmentFile f = new SegmentFile(dir, name, words + 3);
+		files.add(f);
+		return f;
+	}
+
+	/**
+	 * returns a path in the directory of the search, for files that are not lists of nodes
+	 * @param name
+	 * @return
+	 */
+	public File file(String name) {
+		return new File(dir, name);
+	}
+
+	/**
+	 * writes an expanded node to the closed log and sets its id to its record
+	 * @param n
+	 */
+	public void close(Node n) {
+		link[0] = n.parentId;
+		link[1] = code(n, pushLevel);
+		n.id = closed.add(link);
+	}
+
+	/**
+	 * follows the closed log from a record back to the root
+	 * @param id record of an expanded node
+	 * @return nodes without states holding the moves from the root to that node, root excluded
+	 */
+	public ArrayList<Node> path(long id) {
+		ArrayList<Node> path = new ArrayList<Node>();
+		while (id >= 0) {
+			closed.get(id, link);
+			if (link[0] < 0) //the root
+				break;
+			Node n = new Node(null, null, 0, "");
+			setMove(n, (int) link[1], pushLevel);
+			path.add(0, n);
+			id = link[0];
+		}
+		return path;
+	}
+
+	/**
+	 * appends a node to a fringe file
+	 * @param f
+	 * @param n
+	 */
+	public void write(SegmentFile f, Node n) {
+		long[] boxes = n.state.boxes;
+		for (int i = 0; i < words; i++)
+			record[i] = boxes[i];
+		record[words] = ((long) n.state.player << 32) | (n.cost & 0xffffffffL);
+		record[words+1] = ((long) n.h << 32) | (code(n, pushLevel) & 0xffffffffL);
+		record[words+2] = n.parentId;
+		f.add(record);
+	}
+
+	/**
+	 * reads a node from a fringe file. The node has no parent node, only the record of its parent.
+	 * @param f
+	 * @param index
+	 * @param fValue priority of the node
+	 * @return
+	 */
+	public Node read(SegmentFile f, long index, int fValue) {
+		f.get(index, record);
+		Node n = new Node(p.createState(Arrays.copyOf(record, words), (int) (record[words] >>> 32)),
+				null, (int) record[words], "");
+		n.h = (int) (record[words+1] >> 32);
+		n.f = fValue;
+		setMove(n, (int) record[words+1], pushLevel);
+		n.parentId = record[words+2];
+		return n;
+	}
+
+	/**
+	 * deletes every file of the search and its directory
+	 */
+	public void delete() {
+		closed.delete();
+		for (SegmentFile f : files)
+			f.delete();
+		File[] left = dir.listFiles();
+		if (left != null)
+			for (File f : left)
+				f.delete();
+		dir.delete();
+	}
+
+	/**
+	 * the move of a node as an int: the push for push-level nodes and for step-level moves
+	 * that push a box, otherwise -1 - direction, and Integer.MIN_VALUE for the root
+	 */
+	static int code(Node n, boolean pushLevel) {
+		if (pushLevel || n.push >= 0)
+			return n.push;
+		int dir = Arrays.asList(Problem.ACTIONS).indexOf(n.move);
+		return dir < 0 ? Integer.MIN_VALUE : -1 - dir;
+	}
+
+	/**
+	 * sets the move of a node from its code
+	 */
+	static void setMove(Node n, int code, boolean pushLevel) {
+		if (pushLevel || code >= 0) {
+			n.push = code;
+			n.move = pushLevel ? null : Problem.ACTIONS[code & 3];
+		}
+		else {
+			n.push = -1;
+			n.move = code == Integer.MIN_VALUE ? "" : Problem.ACTIONS[-1 - code];
+		}
+	}
+
+}
@@ -1,46 +1,98 @@
-import java.util.HashSet;
+import java.util.Arrays;
 
 /**
- * State class stores set of boxes and player
+ * State class stores the boxes as a bitboard over the floor cells of the problem
+ * (bit i is set when floor cell i holds a box) and the floor cell of the player.
+ * States are never modified after they are created, so a child state that does not
+ * move a box shares the box words of its parent.
  * @author Hyun Seung Hong (hh2473)
  *
  */
 public class State {
 
-	HashSet<Coordinate> boxes;
-	Coordinate player;
-	
-	public State(HashSet<Coordinate> boxes, Coordinate player) {
+	final long[] boxes;
+	final int player;
+	final long key; //Zobrist key of the boxes and the player
+	final long key2; //second, independent Zobrist key
+
+	/**
+	 * States are created by Problem, which maintains the Zobrist keys
+	 * incrementally as the player and the boxes move.
+	 * @param boxes
+	 * @param player
+	 * @param key
+	 * @param key2
+	 */
+	public State(long[] boxes, int player, long key, long key2) {
 		this.boxes = boxes;
 		this.player = player;
+		this.key = key;
+		this.key2 = key2;
+	}
+
+	/**
+	 * checks whether the given floor cell holds a box
+	 * @param cell
+	 * @return
+	 */
+	public boolean hasBox(int cell) {
+		return (boxes[cell >>> 6] & (1L << cell)) != 0;
 	}
-	
+
 	/**
-	 * Implemented hashcode to check if state is already explored
+	 * returns the first floor cell at or after the given cell that holds a box,
+	 * or -1 if there is none. Used to iterate over the boxes:
+	 * for (int b = s.nextBox(0); b >= 0; b = s.nextBox(b+1))
+	 * @param from
+	 * @return
+	 */
+	public int nextBox(int from) {
+		int i = from >>> 6;
+		if (i >= boxes.length)
+			return -1;
+		long word = boxes[i] & (-1L << from);
+		while (true) {
+			if (word != 0)
+				return (i << 6) + Long.numberOfTrailingZeros(word);
+			if (++i == boxes.length)
+				return -1;
+			word = boxes[i];
+		}
+	}
+
+	/**
+	 * The two Zobrist keys form a 128-bit fingerprint of the state, used by FingerprintSet.
+	 * @return
+	 */
+	public long fingerprint() {
+		return key;
+	}
+
+	public long fingerprint2() {
+		return key2;
+	}
+
+	/**
+	 * hashcode is taken from the Zobrist key, so it is never recomputed
 	 */
 	@Override
 	public int hashCode() {
-		int result = 17;
-		for (Coordinate b : boxes) {
-			result = 37 * result + b.hashCode();
-		}
-		result = 37 * result + player.hashCode();
-		return result;
+		return (int) (key ^ (key >>> 32));
 	}
-	
+
 	/**
 	 * Overriding equals for contains() method
 	 */
 	@Override
 	public boolean equals(Object object){
-		
+
 	    if (object == null) return false;
 	    if (object == this) return true;
 	    if (this.getClass() != object.getClass()) return false;
 	    State s = (State)object;
-	    if(this.hashCode()== s.hashCode()) return true;
-	    if((this.boxes == s.boxes) && (this.player == s.player)) return true;
-	    return false;
+	    //the keys reject almost every different state, the full compare makes equal keys safe
+	    return (this.key == s.key) && (this.key2 == s.key2) && (this.player == s.player) &&
+	    		Arrays.equals(this.boxes, s.boxes);
 	}
-	
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,67 @@
+/**
+ * TranspositionTable is the memory-bounded state table of iterative-deepening A*. It has a fixed
+ * number of slots, chosen from a memory budget when it is created, and never grows. Every slot
+ * holds the 128-bit fingerprint of one state, the lowest path cost it was reached with, and the
+ * iteration it was reached in. A state that hashes to an occupied slot replaces the state stored
+ * there, so the table only forgets states and a search that uses it stays optimal.
+ * @author Hyun Seung Hong (hh2473)
+ *
+ */
+public class TranspositionTable {
+
+	public static final long DEFAULT_BUDGET = 64L << 20; //bytes
+	private static final int SLOT_BYTES = 24;
+	private static final int MIN_SLOTS = 1 << 10;
+	private static final int MAX_SLOTS = 1 << 29;
+
+	private final long[] keys; //two fingerprint words per slot
+	private final int[] costs;
+	private final int[] iterations; //iteration the slot was written in, 0 for an empty slot
+	private final int mask;
+	private int size;
+
+	/**
+	 * @param budget bytes the table may use, rounded down to a power of two number of slots
+	 */
+	public TranspositionTable(long budget) {
+		long slots = Math.max(MIN_SLOTS, Math.min(MAX_SLOTS, budget / SLOT_BYTES));
+		int capacity = Integer.highestOneBit((int) slots);
+		keys = new long[capacity * 2];
+		costs = new int[capacity];
+		iterations = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * records that the state was reached with the given path cost in the given iteration
+	 * (iterations start at 1)
+	 * @param s
+	 * @param cost
+	 * @param iteration
+	 * @return false if the state was already reached in the same iteration with a path cost that
+	 * is not higher, in which case the state does not have to be searched again
+	 */
+	public boolean visit(State s, int cost, int iteration) {
+		long fp = s.fingerprint();
+		long fp2 = s.fingerprint2();
+		int i = (int) (fp ^ (fp >>> 32)) & mask;
+		if (keys[2*i] == fp && keys[2*i + 1] == fp2 && iterations[i] == iteration && costs[i] <= cost)
+			return false;
+		if (iterations[i] == 0)
+			size++;
+		keys[2*i] = fp;
+		keys[2*i + 1] = fp2;
+		costs[i] = cost;
+		iterations[i] = iteration;
+		return true;
+	}
+
+	/**
+	 * number of slots that hold a state
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+}